@@ -27,6 +27,8 @@ import org.slf4j.LoggerFactory;
 
 import be.nabu.libs.http.api.HTTPRequest;
 import be.nabu.libs.nio.api.MessageFormatter;
+import be.nabu.libs.http.server.nio.HTTPBufferPool;
+import be.nabu.libs.http.server.nio.PooledReadableContainer;
 import be.nabu.libs.resources.URIUtils;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
@@ -61,7 +63,7 @@ public class HTTPRequestFormatter implements MessageFormatter<HTTPRequest> {
 
 		// no content, just write the ending
 		if (message.getContent() == null) {
-			return IOUtils.chain(true, IOUtils.wrap(firstLine, true), IOUtils.wrap("\r\n".getBytes(Charset.forName("ASCII")), true));
+			return PooledReadableContainer.wrap(HTTPBufferPool.getInstance(), firstLine, "\r\n".getBytes(Charset.forName("ASCII")));
 		}
 		
 		PullableMimeFormatter formatter = new PullableMimeFormatter();
@@ -85,7 +87,7 @@ public class HTTPRequestFormatter implements MessageFormatter<HTTPRequest> {
 			queue.offer(message);
 		}
 		if (DUMPING) {
-			ReadableContainer<ByteBuffer> chain = IOUtils.chain(true, IOUtils.wrap(firstLine, true), formatter);
+			ReadableContainer<ByteBuffer> chain = IOUtils.chain(true, PooledReadableContainer.wrap(HTTPBufferPool.getInstance(), firstLine), formatter);
 			return new ReadableContainerDuplicator<ByteBuffer>(chain, new WritableContainer<ByteBuffer>() {
 				@Override
 				public void close() throws IOException {
@@ -104,7 +106,7 @@ public class HTTPRequestFormatter implements MessageFormatter<HTTPRequest> {
 			});
 		}
 		else {
-			return IOUtils.chain(true, IOUtils.wrap(firstLine, true), formatter);
+			return IOUtils.chain(true, PooledReadableContainer.wrap(HTTPBufferPool.getInstance(), firstLine), formatter);
 		}
 	}
 }
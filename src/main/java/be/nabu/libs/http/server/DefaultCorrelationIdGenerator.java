@@ -0,0 +1,50 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates 32 character hexadecimal ids (the same format as a uuid without dashes) that are ordered in time:
+ * - 12 characters for the timestamp in milliseconds
+ * - 8 characters that are random per node, only generated once
+ * - 12 characters that are random per id, using the thread local random so there is no contention
+ */
+public class DefaultCorrelationIdGenerator implements CorrelationIdGenerator {
+
+	private static final char [] HEX = "0123456789abcdef".toCharArray();
+	private static final int NODE = new SecureRandom().nextInt();
+	
+	@Override
+	public String newCorrelationId() {
+		char [] characters = new char[32];
+		encode(System.currentTimeMillis(), characters, 0, 12);
+		encode(NODE, characters, 12, 8);
+		encode(ThreadLocalRandom.current().nextLong(), characters, 20, 12);
+		return new String(characters);
+	}
+	
+	private static void encode(long value, char [] characters, int offset, int length) {
+		for (int i = offset + length - 1; i >= offset; i--) {
+			characters[i] = HEX[(int) (value & 0xf)];
+			value >>>= 4;
+		}
+	}
+}
@@ -20,7 +20,9 @@ package be.nabu.libs.http.server;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -33,6 +35,7 @@ import be.nabu.libs.http.api.HTTPResponse;
 import be.nabu.libs.http.core.DefaultHTTPResponse;
 import be.nabu.libs.nio.api.ExceptionFormatter;
 import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.mime.api.Header;
 import be.nabu.utils.mime.impl.MimeHeader;
 import be.nabu.utils.mime.impl.PlainMimeContentPart;
 
@@ -55,10 +58,16 @@ public class DefaultHTTPExceptionFormatter implements ExceptionFormatter<HTTPReq
 			.replace("$message", exception.getMessage() == null ? HTTPCodes.getMessage(exception.getCode()) : exception.getMessage())
 			.replace("$stacktrace", stringWriter.toString());
 		byte [] bytes = errorMessage.getBytes(Charset.forName("UTF-8"));
+		List<Header> headers = new ArrayList<Header>();
+		headers.add(new MimeHeader("Connection", "close"));
+		headers.add(new MimeHeader("Content-Length", "" + bytes.length));
+		headers.add(new MimeHeader("Content-Type", "text/html; charset=UTF-8"));
+		// let the client know when it makes sense to try again
+		if (exception instanceof ServiceUnavailableException) {
+			headers.add(new MimeHeader("Retry-After", "" + ((ServiceUnavailableException) exception).getRetryAfter()));
+		}
 		return new DefaultHTTPResponse(request, exception.getCode(), HTTPCodes.getMessage(exception.getCode()), new PlainMimeContentPart(null, IOUtils.wrap(bytes, true), 
-			new MimeHeader("Connection", "close"),
-			new MimeHeader("Content-Length", "" + bytes.length),
-			new MimeHeader("Content-Type", "text/html; charset=UTF-8")
+			headers.toArray(new Header[headers.size()])
 		));
 	}
 
@@ -0,0 +1,60 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server;
+
+import java.util.Date;
+
+import be.nabu.libs.http.core.HTTPUtils;
+
+/**
+ * Keeps the current date formatted for http (which only has a resolution of seconds) so it is formatted at most once per second.
+ * Instead of a ticker thread, the first caller in a new second formats it, this also means nothing happens while the server is idle.
+ */
+public class HTTPDateClock {
+
+	private static volatile Snapshot snapshot = new Snapshot(System.currentTimeMillis() / 1000);
+	
+	/**
+	 * The current date formatted for http
+	 */
+	public static String getDate() {
+		return getSnapshot().formatted;
+	}
+	
+	private static Snapshot getSnapshot() {
+		long second = System.currentTimeMillis() / 1000;
+		Snapshot current = snapshot;
+		// multiple threads may format it at the turn of a second, that does no harm
+		if (current.second != second) {
+			current = new Snapshot(second);
+			snapshot = current;
+		}
+		return current;
+	}
+	
+	private static class Snapshot {
+		private long second;
+		private String formatted;
+		
+		public Snapshot(long second) {
+			this.second = second;
+			this.formatted = HTTPUtils.formatDate(new Date(second * 1000));
+		}
+	}
+}
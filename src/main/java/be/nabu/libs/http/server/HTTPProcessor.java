@@ -19,10 +19,14 @@ package be.nabu.libs.http.server;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,6 +65,7 @@ public class HTTPProcessor extends EventDrivenMessageProcessor<HTTPRequest, HTTP
 	
 	// if enabled, we make sure a correlation id header is available so it can be accessed statically everywhere the http request passes
 	private boolean ensureCorrelationId = true;
+	private CorrelationIdGenerator correlationIdGenerator = new DefaultCorrelationIdGenerator();
 
 	public HTTPProcessor(EventDispatcher dispatcher, ExceptionFormatter<HTTPRequest, HTTPResponse> exceptionFormatter, boolean isProxied, HeaderMappingProvider mapping, EventTarget eventTarget) {
 		super(HTTPRequest.class, HTTPResponse.class, dispatcher, exceptionFormatter, true);
@@ -71,42 +76,79 @@ public class HTTPProcessor extends EventDrivenMessageProcessor<HTTPRequest, HTTP
 
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	
-	private void cleanRequestHeaders(ModifiablePart part, HeaderMappingProvider mapping) {
-		Map<String, Header[]> remap = new HashMap<String, Header[]>();
+	// the names of the server headers the client is not allowed to send
+	private static final Set<String> DISALLOWED_HEADERS = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+	static {
+		for (ServerHeader header : ServerHeader.values()) {
+			if (!header.isUserValueAllowed()) {
+				DISALLOWED_HEADERS.add(header.getName());
+			}
+		}
+	}
+	
+	// the mapping as compiled the last time, we recompile if the content of the mappings changes
+	private volatile CompiledMapping compiledMapping;
+	
+	private CompiledMapping getCompiledMapping(HeaderMappingProvider mapping) {
 		Map<String, String> mappings = mapping == null ? null : mapping.getMappings();
-		if (mappings == null) {
-			mappings = new HashMap<String, String>();
+		String conversationIdMapping = mapping == null ? null : mapping.getConversationIdMapping();
+		CompiledMapping compiledMapping = this.compiledMapping;
+		if (compiledMapping == null || !compiledMapping.isCompiledFrom(mappings, conversationIdMapping)) {
+			compiledMapping = new CompiledMapping(mappings, conversationIdMapping);
+			this.compiledMapping = compiledMapping;
 		}
+		return compiledMapping;
+	}
+	
+	private void cleanRequestHeaders(ModifiablePart part, HeaderMappingProvider mapping) {
+		CompiledMapping compiled = getCompiledMapping(mapping);
+		Header[] partHeaders = part.getHeaders();
 		// take the headers we want to remap
-		for (Map.Entry<String, String> entry : mappings.entrySet()) {
-			if (entry.getKey() != null && entry.getValue() != null && !entry.getKey().trim().isEmpty() && !entry.getValue().trim().isEmpty()) {
-				Header[] headers = MimeUtils.getHeaders(entry.getValue(), part.getHeaders());
-				if (headers != null && headers.length > 0) {
-					remap.put(entry.getKey(), headers);
+		Header[][] remap = null;
+		for (int i = 0; i < compiled.sources.length; i++) {
+			Header[] headers = MimeUtils.getHeaders(compiled.sources[i], partHeaders);
+			if (headers != null && headers.length > 0) {
+				if (remap == null) {
+					remap = new Header[compiled.sources.length][];
 				}
+				remap[i] = headers;
 			}
 		}
-		// remove all the headers that are not allowed
-		for (ServerHeader header : ServerHeader.values()) {
-			if (!header.isUserValueAllowed()) {
-				part.removeHeader(header.getName());
+		// remove all the headers that are not allowed, in a single pass over the headers we actually have
+		List<String> disallowed = null;
+		if (partHeaders != null) {
+			for (Header header : partHeaders) {
+				if (DISALLOWED_HEADERS.contains(header.getName())) {
+					if (disallowed == null) {
+						disallowed = new ArrayList<String>();
+					}
+					disallowed.add(header.getName());
+				}
+			}
+		}
+		if (disallowed != null) {
+			for (String name : disallowed) {
+				part.removeHeader(name);
 			}
 		}
 		// reinjected the explicitly mapped headers
-		for (Map.Entry<String, Header[]> entry : remap.entrySet()) {
-			for (Header original : entry.getValue()) {
-				part.setHeader(new MimeHeader(entry.getKey(), original.getValue(), original.getComments()));
+		if (remap != null) {
+			for (int i = 0; i < remap.length; i++) {
+				if (remap[i] != null) {
+					for (Header original : remap[i]) {
+						part.setHeader(new MimeHeader(compiled.targets[i], original.getValue(), original.getComments()));
+					}
+				}
 			}
 		}
 		// calculate the conversation id
 		boolean hasConversationId = false;
-		if (mapping != null && mapping.getConversationIdMapping() != null) {
-			String[] split = mapping.getConversationIdMapping().split("[\\s]*:[\\s]*");
-			Header header = MimeUtils.getHeader(split[0], part.getHeaders());
+		if (compiled.conversationIdHeader != null) {
+			Header header = MimeUtils.getHeader(compiled.conversationIdHeader, part.getHeaders());
 			if (header != null && header.getValue() != null && !header.getValue().trim().isEmpty()) {
 				String value = MimeUtils.getFullHeaderValue(header);
-				if (split.length >= 2) {
-					value = value.replaceAll(split[1], "$1");
+				if (compiled.conversationIdPattern != null) {
+					value = compiled.conversationIdPattern.matcher(value).replaceAll("$1");
 				}
 				// remove any existing header, otherwise it will get picked up before the other one!
 				part.removeHeader(ServerHeader.NAME_CONVERSATION_ID);
@@ -140,7 +182,9 @@ public class HTTPProcessor extends EventDrivenMessageProcessor<HTTPRequest, HTTP
 				if (remoteSocketAddress != null) {
 					HTTPUtils.setHeader(request.getContent(), ServerHeader.REMOTE_IS_LOCAL, Boolean.toString(remoteSocketAddress.getAddress().isLoopbackAddress() || remoteSocketAddress.getAddress().isLinkLocalAddress()));
 					HTTPUtils.setHeader(request.getContent(), ServerHeader.REMOTE_ADDRESS, remoteSocketAddress.getAddress().getHostAddress());
-					HTTPUtils.setHeader(request.getContent(), ServerHeader.REMOTE_HOST, remoteSocketAddress.getHostName());
+					// resolving the host name can be slow, only do it if someone needs it
+					request.getContent().removeHeader(ServerHeader.REMOTE_HOST.getName());
+					request.getContent().setHeader(new RemoteHostHeader(remoteSocketAddress));
 					HTTPUtils.setHeader(request.getContent(), ServerHeader.REMOTE_PORT, new Integer(remoteSocketAddress.getPort()).toString());
 				}
 				HTTPUtils.setHeader(request.getContent(), ServerHeader.LOCAL_PORT, new Integer(sourceContext.getLocalPort()).toString());
@@ -174,7 +218,7 @@ public class HTTPProcessor extends EventDrivenMessageProcessor<HTTPRequest, HTTP
 			if (header == null) {
 				// check if we have a conversation id
 				Header conversationIdHeader = MimeUtils.getHeader(ServerHeader.NAME_CONVERSATION_ID, request.getContent().getHeaders());
-				String correlationId = UUID.randomUUID().toString().replace("-", "");
+				String correlationId = correlationIdGenerator.newCorrelationId();
 				if (conversationIdHeader != null && conversationIdHeader.getValue() != null && !conversationIdHeader.getValue().trim().isEmpty()) {
 					correlationId = conversationIdHeader.getValue().trim() + ":" + correlationId;
 				}
@@ -249,10 +293,57 @@ public class HTTPProcessor extends EventDrivenMessageProcessor<HTTPRequest, HTTP
 		return response;
 	}
 
+	public CorrelationIdGenerator getCorrelationIdGenerator() {
+		return correlationIdGenerator;
+	}
+
+	public void setCorrelationIdGenerator(CorrelationIdGenerator correlationIdGenerator) {
+		this.correlationIdGenerator = correlationIdGenerator;
+	}
+
 	@Override
 	protected HTTPResponse getDefaultResponse(HTTPRequest request) {
 		// if no response, generate a 404
 		logger.warn("Could not find requested target: " + request.getTarget());
 		return new DefaultHTTPResponse(request, 404, HTTPCodes.getMessage(404), new PlainMimeEmptyPart(null, new MimeHeader("Content-Length", "0")));
 	}
+	
+	private static class CompiledMapping {
+		// we don't keep the map of the provider, it might change it in place, instead we keep a copy of its content
+		private Map<String, String> mappings;
+		private String conversationIdMapping;
+		// the mapped headers: targets[i] gets the value of sources[i]
+		private String [] targets, sources;
+		private String conversationIdHeader;
+		private Pattern conversationIdPattern;
+		
+		public CompiledMapping(Map<String, String> mappings, String conversationIdMapping) {
+			this.mappings = mappings == null ? null : new HashMap<String, String>(mappings);
+			this.conversationIdMapping = conversationIdMapping;
+			List<String> targets = new ArrayList<String>();
+			List<String> sources = new ArrayList<String>();
+			if (mappings != null) {
+				for (Map.Entry<String, String> entry : mappings.entrySet()) {
+					if (entry.getKey() != null && entry.getValue() != null && !entry.getKey().trim().isEmpty() && !entry.getValue().trim().isEmpty()) {
+						targets.add(entry.getKey());
+						sources.add(entry.getValue());
+					}
+				}
+			}
+			this.targets = targets.toArray(new String[targets.size()]);
+			this.sources = sources.toArray(new String[sources.size()]);
+			if (conversationIdMapping != null) {
+				String[] split = conversationIdMapping.split("[\\s]*:[\\s]*");
+				conversationIdHeader = split[0];
+				if (split.length >= 2) {
+					conversationIdPattern = Pattern.compile(split[1]);
+				}
+			}
+		}
+		
+		public boolean isCompiledFrom(Map<String, String> mappings, String conversationIdMapping) {
+			return (mappings == null ? this.mappings == null : mappings.equals(this.mappings))
+				&& (conversationIdMapping == null ? this.conversationIdMapping == null : conversationIdMapping.equals(this.conversationIdMapping));
+		}
+	}
 }
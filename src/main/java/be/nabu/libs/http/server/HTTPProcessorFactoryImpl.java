@@ -17,9 +17,7 @@
 
 package be.nabu.libs.http.server;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import be.nabu.libs.events.api.EventDispatcher;
@@ -30,6 +28,7 @@ import be.nabu.libs.http.api.HTTPResponse;
 import be.nabu.libs.http.api.HeaderMappingProvider;
 import be.nabu.libs.http.api.server.HTTPProcessorFactory;
 import be.nabu.libs.http.core.HTTPUtils;
+import be.nabu.libs.http.server.util.HostRouter;
 import be.nabu.libs.nio.PipelineUtils;
 import be.nabu.libs.nio.api.ExceptionFormatter;
 import be.nabu.libs.nio.api.MessageProcessor;
@@ -43,11 +42,15 @@ import be.nabu.utils.mime.impl.MimeUtils;
 public class HTTPProcessorFactoryImpl implements HTTPProcessorFactory {
 
 	private Map<String, EventDispatcher> dispatchers = new HashMap<String, EventDispatcher>();
-	private List<String> hostsCache;
+	// the hosts compiled for fast lookup, rebuilt whenever the routes change
+	private volatile HostRouter<EventDispatcher> router;
+	// processors hold no state of their own beyond the configuration, so we can reuse them until the configuration changes
+	private volatile Map<EventDispatcher, HTTPProcessor> processors = new HashMap<EventDispatcher, HTTPProcessor>();
 	private ExceptionFormatter<HTTPRequest, HTTPResponse> exceptionFormatter;
 	private boolean isProxied;
 	private HeaderMappingProvider mapping;
 	private EventTarget eventTarget;
+	private CorrelationIdGenerator correlationIdGenerator;
 
 	public HTTPProcessorFactoryImpl(ExceptionFormatter<HTTPRequest, HTTPResponse> exceptionFormatter, boolean isProxied, EventDispatcher coreDispatcher) {
 		this(exceptionFormatter, isProxied, coreDispatcher, null, null);
@@ -65,7 +68,32 @@ public class HTTPProcessorFactoryImpl implements HTTPProcessorFactory {
 		Map<String, EventDispatcher> dispatchers = new HashMap<String, EventDispatcher>(this.dispatchers);
 		dispatchers.put(hostMatch, eventDispatcher);
 		this.dispatchers = dispatchers;
-		this.hostsCache = new ArrayList<String>(this.dispatchers.keySet());
+		this.router = new HostRouter<EventDispatcher>(dispatchers);
+		resetProcessors();
+	}
+	
+	// only call this while holding the lock, otherwise a processor built with the old configuration could be published after the reset
+	private void resetProcessors() {
+		this.processors = new HashMap<EventDispatcher, HTTPProcessor>();
+	}
+	
+	private HTTPProcessor getProcessor(EventDispatcher dispatcher) {
+		HTTPProcessor processor = processors.get(dispatcher);
+		if (processor == null) {
+			synchronized(this) {
+				processor = processors.get(dispatcher);
+				if (processor == null) {
+					processor = new HTTPProcessor(dispatcher, exceptionFormatter, isProxied, mapping, eventTarget);
+					if (correlationIdGenerator != null) {
+						processor.setCorrelationIdGenerator(correlationIdGenerator);
+					}
+					Map<EventDispatcher, HTTPProcessor> processors = new HashMap<EventDispatcher, HTTPProcessor>(this.processors);
+					processors.put(dispatcher, processor);
+					this.processors = processors;
+				}
+			}
+		}
+		return processor;
 	}
 	
 	@Override
@@ -98,30 +126,20 @@ public class HTTPProcessorFactoryImpl implements HTTPProcessorFactory {
 			return null;
 		}
 		else {
-			return new HTTPProcessor(dispatcher, exceptionFormatter, isProxied, mapping, eventTarget);
+			return getProcessor(dispatcher);
 		}
 	}
 
 	@Override
 	public EventDispatcher getDispatcher(String host) {
-		String closestRoute = null;
 		if (host != null) {
 			// strip the port (if any), we are already after a connection
 			int index = host.indexOf(':');
 			if (index > 0) {
 				host = host.substring(0, index);
 			}
-			for (String key : hostsCache) {
-				if (key != null) {
-					if (host.matches(key)) {
-						if (closestRoute == null || key.length() > closestRoute.length()) {
-							closestRoute = key;
-						}
-					}
-				}
-			}
 		}
-		return dispatchers.get(closestRoute);
+		return router.route(host);
 	}
 
 	@Override
@@ -129,8 +147,9 @@ public class HTTPProcessorFactoryImpl implements HTTPProcessorFactory {
 		return exceptionFormatter;
 	}
 	@Override
-	public void setExceptionFormatter(ExceptionFormatter<HTTPRequest, HTTPResponse> exceptionFormatter) {
+	public synchronized void setExceptionFormatter(ExceptionFormatter<HTTPRequest, HTTPResponse> exceptionFormatter) {
 		this.exceptionFormatter = exceptionFormatter;
+		resetProcessors();
 	}
 	
 	@Override
@@ -139,8 +158,18 @@ public class HTTPProcessorFactoryImpl implements HTTPProcessorFactory {
 	}
 
 	@Override
-	public void setProxied(boolean isProxied) {
+	public synchronized void setProxied(boolean isProxied) {
 		this.isProxied = isProxied;
+		resetProcessors();
+	}
+
+	public CorrelationIdGenerator getCorrelationIdGenerator() {
+		return correlationIdGenerator;
+	}
+
+	public synchronized void setCorrelationIdGenerator(CorrelationIdGenerator correlationIdGenerator) {
+		this.correlationIdGenerator = correlationIdGenerator;
+		resetProcessors();
 	}
 
 	@Override
@@ -148,6 +177,8 @@ public class HTTPProcessorFactoryImpl implements HTTPProcessorFactory {
 		Map<String, EventDispatcher> dispatchers = new HashMap<String, EventDispatcher>(this.dispatchers);
 		dispatchers.remove(hostMatch);
 		this.dispatchers = dispatchers;
+		this.router = new HostRouter<EventDispatcher>(dispatchers);
+		resetProcessors();
 	}
 
 }
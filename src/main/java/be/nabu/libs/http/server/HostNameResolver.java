@@ -0,0 +1,196 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.nabu.libs.http.server.util.LRUCache;
+
+/**
+ * Resolves host names for addresses on a small dedicated pool so a slow resolver never blocks the processing threads for long.
+ * Successful lookups are cached for a while, failed lookups are cached for a shorter time so we don't hammer the resolver.
+ * If the lookup does not finish in time, the address itself is returned (like the JDK does when it can't resolve), the lookup continues in the background and is cached for the next time.
+ */
+public class HostNameResolver {
+	
+	private static volatile HostNameResolver instance = new HostNameResolver(
+		Integer.parseInt(System.getProperty("http.dns.threads", "2")),
+		Integer.parseInt(System.getProperty("http.dns.cacheSize", "4096")),
+		Long.parseLong(System.getProperty("http.dns.ttl", "300000")),
+		Long.parseLong(System.getProperty("http.dns.negativeTtl", "60000")),
+		Long.parseLong(System.getProperty("http.dns.timeout", "250"))
+	);
+	
+	public static HostNameResolver getInstance() {
+		return instance;
+	}
+	
+	public static void setInstance(HostNameResolver instance) {
+		HostNameResolver.instance = instance;
+	}
+	
+	private ThreadPoolExecutor executor;
+	private Map<String, Entry> cache;
+	private long ttl, negativeTtl, timeout;
+	
+	public HostNameResolver(int threads, int cacheSize, long ttl, long negativeTtl, long timeout) {
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+		this.timeout = timeout;
+		this.cache = Collections.synchronizedMap(new LRUCache<String, Entry>(cacheSize));
+		final AtomicInteger counter = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(cacheSize), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "http-dns-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+	
+	public String getHostName(final InetAddress address) {
+		final String ip = address.getHostAddress();
+		Entry entry = cache.get(ip);
+		// only the request that triggers the lookup waits for it, others don't pay for a slow resolver
+		boolean fresh = false;
+		if (entry == null || entry.isExpired()) {
+			synchronized(cache) {
+				entry = cache.get(ip);
+				if (entry == null || entry.isExpired()) {
+					final Entry created = new Entry();
+					FutureTask<String> future = new FutureTask<String>(new Callable<String>() {
+						@Override
+						public String call() throws Exception {
+							String hostName;
+							try {
+								// use a fresh address object, the one from the socket would remember the result on its own
+								hostName = InetAddress.getByAddress(address.getAddress()).getHostName();
+							}
+							catch (UnknownHostException e) {
+								hostName = ip;
+							}
+							// when the lookup fails, the jdk returns the textual address
+							created.expires = System.currentTimeMillis() + (hostName.equals(ip) ? negativeTtl : ttl);
+							return hostName;
+						}
+					});
+					created.future = future;
+					entry = created;
+					fresh = true;
+					cache.put(ip, entry);
+					try {
+						executor.execute(future);
+					}
+					catch (RejectedExecutionException e) {
+						// the resolver is swamped, don't remember this so we can try again later
+						cache.remove(ip);
+						return ip;
+					}
+				}
+			}
+		}
+		// the lookup was started for an earlier request and is still running
+		if (!fresh && !entry.future.isDone()) {
+			return ip;
+		}
+		try {
+			return entry.future.get(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e) {
+			return ip;
+		}
+		catch (ExecutionException e) {
+			return ip;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return ip;
+		}
+	}
+	
+	/**
+	 * The host name if we already know it, this never starts or waits for a lookup
+	 */
+	public String getCachedHostName(InetAddress address) {
+		Entry entry = cache.get(address.getHostAddress());
+		if (entry != null && !entry.isExpired() && entry.future.isDone()) {
+			try {
+				return entry.future.get();
+			}
+			catch (ExecutionException e) {
+				return null;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		return null;
+	}
+	
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+	
+	public long getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(long ttl) {
+		this.ttl = ttl;
+	}
+
+	public long getNegativeTtl() {
+		return negativeTtl;
+	}
+
+	public void setNegativeTtl(long negativeTtl) {
+		this.negativeTtl = negativeTtl;
+	}
+
+	private static class Entry {
+		private Future<String> future;
+		// as long as the lookup is running, it does not expire
+		private volatile long expires = Long.MAX_VALUE;
+		
+		public boolean isExpired() {
+			return expires < System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server;
+
+import java.net.InetSocketAddress;
+
+import be.nabu.libs.http.core.ServerHeader;
+import be.nabu.utils.mime.api.Header;
+
+/**
+ * The host name of the remote party is only resolved when someone explicitly asks for it through {@link #getHostName()}.
+ * Reading the value (for example when the headers are logged or copied) never triggers a lookup, it shows the address until the name is known.
+ */
+public class RemoteHostHeader implements Header {
+
+	private InetSocketAddress address;
+	private volatile String value;
+
+	public RemoteHostHeader(InetSocketAddress address) {
+		this.address = address;
+	}
+	
+	@Override
+	public String getName() {
+		return ServerHeader.REMOTE_HOST.getName();
+	}
+
+	@Override
+	public String getValue() {
+		if (value != null) {
+			return value;
+		}
+		else if (address.getAddress() == null) {
+			return address.getHostString();
+		}
+		// it may have been resolved for an earlier request
+		String cached = HostNameResolver.getInstance().getCachedHostName(address.getAddress());
+		return cached == null ? address.getAddress().getHostAddress() : cached;
+	}
+	
+	/**
+	 * Resolves the host name, this can take as long as the timeout of the {@link HostNameResolver}
+	 */
+	public String getHostName() {
+		if (value == null) {
+			// if the address was created with a host name, there is nothing to resolve
+			value = address.getAddress() == null ? address.getHostString() : HostNameResolver.getInstance().getHostName(address.getAddress());
+		}
+		return value;
+	}
+
+	@Override
+	public String[] getComments() {
+		return new String[0];
+	}
+	
+	@Override
+	public String toString() {
+		return getName() + ": " + getValue();
+	}
+}
@@ -0,0 +1,558 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import be.nabu.libs.resources.api.LocatableResource;
+import be.nabu.libs.resources.api.ReadableResource;
+import be.nabu.libs.resources.api.ResourceContainer;
+import be.nabu.libs.resources.api.TimestampedResource;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+
+/**
+ * Keeps the content of resources in memory within a total byte budget.
+ * Lookups are lock free, every hit marks the entry as recently used. When the budget is exceeded, the least recently used entries are evicted until we are comfortably below it again.
+ * Resources that are larger than the maximum entry size are never cached, they are streamed from the source.
+ */
+public class ResourceCache {
+
+	private Map<String, CachedResource> entries = new ConcurrentHashMap<String, CachedResource>();
+	// paths that turned out to be too big, we don't read them again to find that out
+	private Set<String> bypassed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private int maxBypassed = Integer.parseInt(System.getProperty("http.resourceCache.maxBypassed", "10000"));
+	private long maxSize, maxEntrySize;
+	// whether we compute compressed variants of the cached resources
+	private boolean precompress = Boolean.parseBoolean(System.getProperty("http.resourceCache.precompress", "true"));
+	private volatile ExecutorService compressor;
+	// every queued compression holds on to the content of its entry, so the queue is bounded, when it is full we compress on the calling thread
+	private int maxQueuedCompressions = Integer.parseInt(System.getProperty("http.resourceCache.maxQueuedCompressions", "64"));
+	// an estimate of the variants that are queued for compression but not yet added to the size
+	private AtomicLong pending = new AtomicLong();
+	private AtomicLong size = new AtomicLong(), clock = new AtomicLong(), hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong(), bypasses = new AtomicLong();
+	
+	public ResourceCache(long maxSize, long maxEntrySize) {
+		this.maxSize = maxSize;
+		this.maxEntrySize = maxEntrySize;
+	}
+	
+	public ResourceCache() {
+		this(
+			Long.parseLong(System.getProperty("http.resourceCache.maxSize", "" + (64 * 1024 * 1024))),
+			Long.parseLong(System.getProperty("http.resourceCache.maxEntrySize", "" + (1024 * 1024)))
+		);
+	}
+	
+	public ReadableResource get(String path) {
+		CachedResource resource = entries.get(path);
+		if (resource == null) {
+			misses.incrementAndGet();
+		}
+		else {
+			hits.incrementAndGet();
+			resource.lastAccess = clock.incrementAndGet();
+		}
+		return resource;
+	}
+	
+	public ReadableResource put(String path, ReadableResource resource) throws IOException {
+		return put(path, resource, null);
+	}
+	
+	/**
+	 * Caches the content of the resource, this returns null if the resource is too big to be cached
+	 * If a gzipped version of the resource is already available, it is used instead of compressing it ourselves
+	 */
+	public ReadableResource put(String path, ReadableResource resource, ReadableResource gzipped) throws IOException {
+		return put(path, resource, gzipped, 0);
+	}
+	
+	/**
+	 * Caches the resource as if it was last used at the given tick (as reserved with {@link #reserveAccess(int)}), 0 means now.
+	 * This determines which entries are evicted first, for example when loading a manifest the hottest entries should be the most recent ones, regardless of the order in which they are loaded.
+	 */
+	public ReadableResource put(String path, ReadableResource resource, ReadableResource gzipped, long lastAccess) throws IOException {
+		// if we know the size up front, we don't even have to read it
+		if (resource instanceof LocatableResource) {
+			URI uri = ((LocatableResource) resource).getUri();
+			if (uri != null && "file".equals(uri.getScheme()) && new File(uri).length() > maxEntrySize) {
+				bypass(path);
+				return null;
+			}
+		}
+		byte [] content = read(resource);
+		if (content.length > maxEntrySize) {
+			bypass(path);
+			return null;
+		}
+		CachedResource cached = new CachedResource(resource.getName(), resource.getContentType(), content, resource instanceof TimestampedResource ? ((TimestampedResource) resource).getLastModified() : null);
+		cached.lastAccess = lastAccess > 0 ? lastAccess : clock.incrementAndGet();
+		if (gzipped != null) {
+			byte [] gzippedContent = read(gzipped);
+			if (gzippedContent.length <= maxEntrySize) {
+				cached.gzip = gzippedContent;
+			}
+		}
+		CachedResource previous = entries.put(path, cached);
+		size.addAndGet(cached.getSize());
+		if (previous != null) {
+			release(previous);
+		}
+		if (precompress && isCompressible(cached.getContentType())) {
+			compress(cached);
+		}
+		if (size.get() > maxSize) {
+			evict();
+		}
+		return cached;
+	}
+	
+	/**
+	 * Reserves a range of access ticks and returns the most recent one, the range ends before anything that is accessed afterwards
+	 */
+	public long reserveAccess(int amount) {
+		return clock.addAndGet(amount);
+	}
+	
+	private void bypass(String path) {
+		bypasses.incrementAndGet();
+		// we don't bother tracking usage, if there are too many we simply start over
+		if (bypassed.size() >= maxBypassed) {
+			bypassed.clear();
+		}
+		bypassed.add(path);
+	}
+	
+	/**
+	 * Whether we already know the resource at this path is too big to be cached
+	 */
+	public boolean isBypassed(String path) {
+		return bypassed.contains(path);
+	}
+	
+	private byte [] read(ReadableResource resource) throws IOException {
+		ReadableContainer<ByteBuffer> readable = resource.getReadable();
+		try {
+			return IOUtils.toBytes(IOUtils.limitReadable(readable, maxEntrySize + 1));
+		}
+		finally {
+			readable.close();
+		}
+	}
+	
+	/**
+	 * Whether it makes sense to compress content of this type, most image, audio and video formats and archives are compressed already
+	 */
+	public static boolean isCompressible(String contentType) {
+		if (contentType == null) {
+			return true;
+		}
+		contentType = contentType.toLowerCase();
+		int index = contentType.indexOf(';');
+		if (index >= 0) {
+			contentType = contentType.substring(0, index).trim();
+		}
+		if (contentType.startsWith("image/")) {
+			return contentType.equals("image/svg+xml") || contentType.equals("image/bmp") || contentType.equals("image/x-icon") || contentType.equals("image/vnd.microsoft.icon");
+		}
+		return !contentType.startsWith("audio/")
+			&& !contentType.startsWith("video/")
+			&& !contentType.equals("font/woff")
+			&& !contentType.equals("font/woff2")
+			&& !contentType.equals("application/zip")
+			&& !contentType.equals("application/gzip")
+			&& !contentType.equals("application/x-gzip")
+			&& !contentType.equals("application/x-bzip2")
+			&& !contentType.equals("application/x-xz")
+			&& !contentType.equals("application/x-7z-compressed")
+			&& !contentType.equals("application/x-rar-compressed")
+			&& !contentType.equals("application/zstd")
+			&& !contentType.equals("application/pdf");
+	}
+	
+	// compress the variants we don't have yet in the background
+	private void compress(final CachedResource cached) {
+		if (compressor == null) {
+			synchronized(this) {
+				if (compressor == null) {
+					compressor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, maxQueuedCompressions)), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "http-resource-compressor");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+				}
+			}
+		}
+		// a variant is only kept if it is smaller than the content
+		final long estimate = cached.gzip == null ? 2l * cached.content.length : cached.content.length;
+		pending.addAndGet(estimate);
+		Runnable compression = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					// it may have been evicted while it was queued
+					if (cached.removed) {
+						return;
+					}
+					if (cached.gzip == null) {
+						ByteArrayOutputStream output = new ByteArrayOutputStream();
+						GZIPOutputStream gzip = new GZIPOutputStream(output);
+						gzip.write(cached.content);
+						gzip.close();
+						setVariant(cached, output.toByteArray(), true);
+					}
+					if (cached.removed) {
+						return;
+					}
+					ByteArrayOutputStream output = new ByteArrayOutputStream();
+					DeflaterOutputStream deflate = new DeflaterOutputStream(output);
+					deflate.write(cached.content);
+					deflate.close();
+					setVariant(cached, output.toByteArray(), false);
+				}
+				catch (IOException e) {
+					// can't happen in memory, we simply serve the uncompressed content
+				}
+				finally {
+					pending.addAndGet(-estimate);
+				}
+			}
+		};
+		try {
+			compressor.execute(compression);
+		}
+		catch (RejectedExecutionException e) {
+			compression.run();
+		}
+	}
+	
+	/**
+	 * Wait until the compressed variants of everything that is cached so far are available, returns false if that did not happen in time
+	 */
+	public boolean awaitCompression(long timeout) throws InterruptedException {
+		ExecutorService compressor = this.compressor;
+		if (compressor == null) {
+			return true;
+		}
+		long deadline = System.currentTimeMillis() + timeout;
+		// the compressor handles its work in order, so once this runs, everything before it is done
+		Future<?> future = null;
+		while (future == null) {
+			try {
+				future = compressor.submit(new Runnable() {
+					@Override
+					public void run() {
+						// nothing to do
+					}
+				});
+			}
+			// the queue is full, wait for it to drain
+			catch (RejectedExecutionException e) {
+				if (System.currentTimeMillis() >= deadline) {
+					return false;
+				}
+				Thread.sleep(10);
+			}
+		}
+		try {
+			future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			return true;
+		}
+		catch (ExecutionException e) {
+			return true;
+		}
+		catch (TimeoutException e) {
+			return false;
+		}
+	}
+	
+	private void setVariant(CachedResource cached, byte [] compressed, boolean gzip) {
+		// it does not make sense to keep it if it didn't compress
+		if (compressed.length >= cached.content.length) {
+			return;
+		}
+		synchronized(cached) {
+			if (cached.removed) {
+				return;
+			}
+			if (gzip) {
+				cached.gzip = compressed;
+			}
+			else {
+				cached.deflate = compressed;
+			}
+			size.addAndGet(compressed.length);
+		}
+		// the variants count towards the budget as well
+		if (size.get() > maxSize) {
+			evict();
+		}
+	}
+	
+	private void release(CachedResource cached) {
+		synchronized(cached) {
+			if (!cached.removed) {
+				cached.removed = true;
+				size.addAndGet(-cached.getSize());
+			}
+		}
+	}
+	
+	public void remove(String path) {
+		// it may have changed, we check the size again the next time
+		bypassed.remove(path);
+		CachedResource removed = entries.remove(path);
+		if (removed != null) {
+			release(removed);
+		}
+	}
+	
+	public void clear() {
+		bypassed.clear();
+		for (String path : new ArrayList<String>(entries.keySet())) {
+			remove(path);
+		}
+	}
+	
+	private synchronized void evict() {
+		if (size.get() <= maxSize) {
+			return;
+		}
+		List<Map.Entry<String, CachedResource>> candidates = new ArrayList<Map.Entry<String, CachedResource>>(entries.entrySet());
+		Collections.sort(candidates, new Comparator<Map.Entry<String, CachedResource>>() {
+			@Override
+			public int compare(Map.Entry<String, CachedResource> o1, Map.Entry<String, CachedResource> o2) {
+				return Long.compare(o1.getValue().lastAccess, o2.getValue().lastAccess);
+			}
+		});
+		long target = getEvictionTarget();
+		for (Map.Entry<String, CachedResource> candidate : candidates) {
+			if (size.get() <= target) {
+				break;
+			}
+			// only remove it if it was not replaced in the mean time
+			if (entries.remove(candidate.getKey(), candidate.getValue())) {
+				release(candidate.getValue());
+				evictions.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * The cached paths, the most recently used first. This can be stored as a manifest to warm up the cache on the next start.
+	 */
+	public List<String> getPaths() {
+		List<Map.Entry<String, CachedResource>> cached = new ArrayList<Map.Entry<String, CachedResource>>(entries.entrySet());
+		Collections.sort(cached, new Comparator<Map.Entry<String, CachedResource>>() {
+			@Override
+			public int compare(Map.Entry<String, CachedResource> o1, Map.Entry<String, CachedResource> o2) {
+				return Long.compare(o2.getValue().lastAccess, o1.getValue().lastAccess);
+			}
+		});
+		List<String> paths = new ArrayList<String>();
+		for (Map.Entry<String, CachedResource> entry : cached) {
+			paths.add(entry.getKey());
+		}
+		return paths;
+	}
+	
+	/**
+	 * Eviction goes a bit further than necessary so we don't have to do it on every new entry, this is the size it stops at
+	 */
+	public long getEvictionTarget() {
+		return maxSize - (maxSize / 10);
+	}
+	
+	/**
+	 * An upper bound for the size of the compressed variants that are still being computed
+	 */
+	public long getPendingSize() {
+		return pending.get();
+	}
+	
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public boolean isPrecompress() {
+		return precompress;
+	}
+
+	public void setPrecompress(boolean precompress) {
+		this.precompress = precompress;
+	}
+
+	public long getMaxEntrySize() {
+		return maxEntrySize;
+	}
+
+	public void setMaxEntrySize(long maxEntrySize) {
+		this.maxEntrySize = maxEntrySize;
+		bypassed.clear();
+	}
+	
+	/**
+	 * The amount of bytes currently cached
+	 */
+	public long getSize() {
+		return size.get();
+	}
+	
+	public int getEntries() {
+		return entries.size();
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * The amount of resources that were not cached because they were too big
+	 */
+	public long getBypasses() {
+		return bypasses.get();
+	}
+	
+	public static class CachedResource implements ReadableResource, TimestampedResource {
+		private String name, contentType;
+		private byte [] content;
+		// the compressed variants, they are only set if they are actually smaller
+		private volatile byte [] gzip, deflate;
+		private volatile String etag;
+		private Date lastModified;
+		private volatile long lastAccess;
+		private volatile boolean removed;
+		
+		public CachedResource(String name, String contentType, byte [] content, Date lastModified) {
+			this.name = name;
+			this.contentType = contentType;
+			this.content = content;
+			this.lastModified = lastModified;
+		}
+		
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+		
+		@Override
+		public String getName() {
+			return name;
+		}
+		
+		@Override
+		public ResourceContainer<?> getParent() {
+			return null;
+		}
+		
+		@Override
+		public ReadableContainer<ByteBuffer> getReadable() throws IOException {
+			return IOUtils.wrap(content, true);
+		}
+		
+		@Override
+		public Date getLastModified() {
+			return lastModified;
+		}
+		
+		/**
+		 * A strong etag based on the content, it is only calculated once
+		 */
+		public String getETag() {
+			if (etag == null) {
+				try {
+					byte [] digest = MessageDigest.getInstance("SHA-256").digest(content);
+					StringBuilder builder = new StringBuilder("\"");
+					// half of the digest is more than enough to tell versions of a resource apart
+					for (int i = 0; i < 16; i++) {
+						builder.append(String.format("%02x", digest[i] & 0xff));
+					}
+					etag = builder.append("\"").toString();
+				}
+				catch (NoSuchAlgorithmException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return etag;
+		}
+		
+		/**
+		 * The amount of memory taken up by this resource, including the compressed variants
+		 */
+		public long getSize() {
+			byte [] gzip = this.gzip, deflate = this.deflate;
+			return content.length + (gzip == null ? 0 : gzip.length) + (deflate == null ? 0 : deflate.length);
+		}
+		
+		/**
+		 * The content in the given encoding (gzip or deflate), null if we don't have that variant (yet)
+		 */
+		public byte [] getContent(String encoding) {
+			if ("gzip".equalsIgnoreCase(encoding)) {
+				return gzip;
+			}
+			else if ("deflate".equalsIgnoreCase(encoding)) {
+				return deflate;
+			}
+			return null;
+		}
+	}
+}
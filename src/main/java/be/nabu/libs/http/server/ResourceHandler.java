@@ -20,12 +20,22 @@ package be.nabu.libs.http.server;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import be.nabu.libs.events.api.EventHandler;
 import be.nabu.libs.http.HTTPCodes;
@@ -36,19 +46,20 @@ import be.nabu.libs.http.api.LinkableHTTPResponse;
 import be.nabu.libs.http.core.DefaultHTTPRequest;
 import be.nabu.libs.http.core.DefaultHTTPResponse;
 import be.nabu.libs.http.core.HTTPUtils;
-import be.nabu.libs.resources.DynamicResource;
-import be.nabu.libs.resources.ResourceReadableContainer;
+import be.nabu.libs.http.server.util.LRUCache;
 import be.nabu.libs.resources.ResourceUtils;
 import be.nabu.libs.resources.URIUtils;
 import be.nabu.libs.resources.api.ReadableResource;
 import be.nabu.libs.resources.api.Resource;
 import be.nabu.libs.resources.api.ResourceContainer;
 import be.nabu.libs.resources.api.TimestampedResource;
+import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.mime.api.ContentPart;
 import be.nabu.utils.mime.api.Header;
 import be.nabu.utils.mime.impl.FormatException;
 import be.nabu.utils.mime.impl.MimeHeader;
 import be.nabu.utils.mime.impl.MimeUtils;
+import be.nabu.utils.mime.impl.PlainMimeContentPart;
 import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
 
 public class ResourceHandler implements EventHandler<HTTPRequest, HTTPResponse> {
@@ -56,10 +67,18 @@ public class ResourceHandler implements EventHandler<HTTPRequest, HTTPResponse>
 	private String serverPath;
 	private List<ResourceContainer<?>> roots = new ArrayList<ResourceContainer<?>>();
 	private boolean useCache;
-	private Map<String, ReadableResource> cache = new HashMap<String, ReadableResource>();
+	private ResourceCache cache = new ResourceCache();
 	private boolean allowEncoding;
 	private Map<ResourceContainer<?>, Set<String>> resources = new HashMap<ResourceContainer<?>, Set<String>>();
 	private String defaultResource = null;
+	// paths (relative to the server path) that contain a fingerprint and as such never change
+	private Pattern immutablePath;
+	// paths that recently could not be resolved in a root, with the time at which we should check again
+	private Map<ResourceContainer<?>, LRUCache<String, Long>> misses = new HashMap<ResourceContainer<?>, LRUCache<String, Long>>();
+	private int missCacheSize = Integer.parseInt(System.getProperty("http.resourceHandler.missCacheSize", "1024"));
+	private long missTimeout = Long.parseLong(System.getProperty("http.resourceHandler.missTimeout", "10000"));
+	// watches the file backed roots for changes
+	private volatile ResourceWatcher watcher;
 	
 	public ResourceHandler(ResourceContainer<?> root, String serverPath, boolean useCache) {
 		if (root != null) {
@@ -105,28 +124,64 @@ public class ResourceHandler implements EventHandler<HTTPRequest, HTTPResponse>
 				return null;
 			}
 			MimeHeader contentTypeHeader = new MimeHeader("Content-Type", resource.getContentType() == null ? "application/octet-stream" : resource.getContentType());
-			if (resource instanceof TimestampedResource) {
-				Date ifModifiedSince = HTTPUtils.getIfModifiedSince(request.getContent().getHeaders());
-				MimeHeader lastModifiedHeader = new MimeHeader("Last-Modified", HTTPUtils.formatDate(((TimestampedResource) resource).getLastModified()));
-				MimeHeader cacheHeader = new MimeHeader("Cache-Control", "public");
+			Date lastModified = resource instanceof TimestampedResource ? ((TimestampedResource) resource).getLastModified() : null;
+			// cached resources have a hash of their content as etag
+			String etag = resource instanceof ResourceCache.CachedResource ? ((ResourceCache.CachedResource) resource).getETag() : null;
+			if (lastModified != null || etag != null) {
+				List<Header> headers = new ArrayList<Header>();
+				// fingerprinted resources never change, browsers and proxies don't need to check them again
+				headers.add(new MimeHeader("Cache-Control", immutablePath != null && immutablePath.matcher(path).matches() ? "public, max-age=31536000, immutable" : "public"));
+				if (lastModified != null) {
+					headers.add(new MimeHeader("Last-Modified", HTTPUtils.formatDate(lastModified)));
+				}
+				if (etag != null) {
+					headers.add(new MimeHeader("ETag", etag));
+				}
+				headers.add(contentTypeHeader);
+				boolean notModified = false;
+				Header ifNoneMatch = MimeUtils.getHeader("If-None-Match", request.getContent().getHeaders());
+				// if none match takes precedence over if modified since
+				if (ifNoneMatch != null && etag != null) {
+					notModified = matchesETag(MimeUtils.getFullHeaderValue(ifNoneMatch), etag);
+				}
+				else if (lastModified != null) {
+					Date ifModifiedSince = HTTPUtils.getIfModifiedSince(request.getContent().getHeaders());
+					notModified = ifModifiedSince != null && !ifModifiedSince.after(lastModified);
+				}
 				// if it has not been modified, send back a 304
-				if (ifModifiedSince != null && !ifModifiedSince.after(((TimestampedResource) resource).getLastModified())) {
-					return new DefaultHTTPResponse(request, 304, HTTPCodes.getMessage(304), new PlainMimeEmptyPart(null, 
-						new MimeHeader("Content-Length", "0"), 
-						cacheHeader,
-						lastModifiedHeader,
-						contentTypeHeader
-					));
+				if (notModified) {
+					// the 304 carries the etag of the representation the full response would have sent
+					if (etag != null) {
+						removeHeader(headers, "ETag");
+						headers.add(new MimeHeader("ETag", getSelectedETag(request, resource, etag)));
+					}
+					headers.add(0, new MimeHeader("Content-Length", "0"));
+					// a 304 has to carry the same vary as the full response would, otherwise caches may store it for the wrong encoding
+					if (allowEncoding) {
+						headers.add(new MimeHeader("Vary", "Accept-Encoding"));
+					}
+					return new DefaultHTTPResponse(request, 304, HTTPCodes.getMessage(304), new PlainMimeEmptyPart(null, headers.toArray(new Header[headers.size()])));
 				}
 				else {
-					HTTPResponse newResponse = HTTPUtils.newResponse(request, (ReadableResource) resource, cacheHeader, lastModifiedHeader, contentTypeHeader);
-					if (allowEncoding && newResponse.getContent() instanceof ContentPart) {
+					HTTPResponse newResponse = newResponse(request, (ReadableResource) resource, headers.toArray(new Header[headers.size()]));
+					boolean precompressed = newResponse.getContent() != null && MimeUtils.getHeader("Content-Encoding", newResponse.getContent().getHeaders()) != null;
+					// if we already sent back a precompressed variant, there is nothing left to encode
+					if (allowEncoding && newResponse.getContent() instanceof ContentPart && !precompressed) {
 						HTTPUtils.setContentEncoding(newResponse.getContent(), request.getContent().getHeaders());
 					}
+					if (allowEncoding && newResponse.getContent() != null) {
+						newResponse.getContent().setHeader(new MimeHeader("Vary", "Accept-Encoding"));
+					}
+					// a strong etag is specific to the encoding, the output of encoding on the fly is not guaranteed to be byte for byte identical so it only gets a weak one
+					Header contentEncoding = newResponse.getContent() == null ? null : MimeUtils.getHeader("Content-Encoding", newResponse.getContent().getHeaders());
+					if (etag != null && contentEncoding != null) {
+						newResponse.getContent().removeHeader("ETag");
+						newResponse.getContent().setHeader(new MimeHeader("ETag", (precompressed ? "" : "W/") + getETag(etag, contentEncoding.getValue())));
+					}
 					return newResponse;
 				}
 			}
-			return HTTPUtils.newResponse(request, (ReadableResource) resource, contentTypeHeader);
+			return newResponse(request, (ReadableResource) resource, contentTypeHeader);
 		}
 		catch (IOException e) {
 			throw new HTTPException(500, e);
@@ -139,7 +194,124 @@ public class ResourceHandler implements EventHandler<HTTPRequest, HTTPResponse>
 		}
 	}
 	
+	private HTTPResponse newResponse(HTTPRequest request, ReadableResource resource, Header...headers) throws IOException {
+		// if we have a precompressed variant the client accepts, we send that
+		String precompressed = getPrecompressedEncoding(request, resource);
+		if (precompressed != null) {
+			byte [] content = ((ResourceCache.CachedResource) resource).getContent(precompressed);
+			List<Header> encodedHeaders = new ArrayList<Header>(Arrays.asList(headers));
+			encodedHeaders.add(new MimeHeader("Content-Encoding", precompressed));
+			encodedHeaders.add(new MimeHeader("Content-Length", "" + content.length));
+			return new DefaultHTTPResponse(request, 200, HTTPCodes.getMessage(200), new PlainMimeContentPart(null, IOUtils.wrap(content, true), encodedHeaders.toArray(new Header[encodedHeaders.size()])));
+		}
+		return HTTPUtils.newResponse(request, resource, headers);
+	}
+	
+	// the precompressed variant we would send for this request, if any
+	private String getPrecompressedEncoding(HTTPRequest request, Resource resource) {
+		if (allowEncoding && resource instanceof ResourceCache.CachedResource) {
+			Header acceptEncoding = MimeUtils.getHeader("Accept-Encoding", request.getContent().getHeaders());
+			if (acceptEncoding != null) {
+				for (String encoding : getAcceptedEncodings(MimeUtils.getFullHeaderValue(acceptEncoding))) {
+					if (((ResourceCache.CachedResource) resource).getContent(encoding) != null) {
+						return encoding;
+					}
+				}
+			}
+		}
+		return null;
+	}
+	
+	// the etag the full response would carry for this request
+	private String getSelectedETag(HTTPRequest request, Resource resource, String etag) {
+		String precompressed = getPrecompressedEncoding(request, resource);
+		if (precompressed != null) {
+			return getETag(etag, precompressed);
+		}
+		Header acceptEncoding = allowEncoding ? MimeUtils.getHeader("Accept-Encoding", request.getContent().getHeaders()) : null;
+		if (acceptEncoding != null) {
+			List<String> encodings = getAcceptedEncodings(MimeUtils.getFullHeaderValue(acceptEncoding));
+			// encoded on the fly
+			if (!encodings.isEmpty()) {
+				return "W/" + getETag(etag, encodings.get(0));
+			}
+		}
+		return etag;
+	}
+	
+	private static void removeHeader(List<Header> headers, String name) {
+		Iterator<Header> iterator = headers.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().getName().equalsIgnoreCase(name)) {
+				iterator.remove();
+			}
+		}
+	}
+	
+	// the etag of an encoded variant
+	private static String getETag(String etag, String encoding) {
+		return etag.substring(0, etag.length() - 1) + "-" + encoding.trim().toLowerCase() + "\"";
+	}
+	
+	private static boolean matchesETag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch.trim().equals("*")) {
+			return true;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			// if none match uses the weak comparison
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals(etag) || candidate.equals(getETag(etag, "gzip")) || candidate.equals(getETag(etag, "deflate"))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// the precompressed encodings the client accepts, in order of our preference
+	private static List<String> getAcceptedEncodings(String acceptEncoding) {
+		List<String> encodings = new ArrayList<String>();
+		boolean wildcard = false;
+		for (String part : acceptEncoding.split(",")) {
+			String [] parameters = part.split(";");
+			String name = parameters[0].trim().toLowerCase();
+			boolean accepted = true;
+			for (int i = 1; i < parameters.length; i++) {
+				String parameter = parameters[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						accepted = Double.parseDouble(parameter.substring(2).trim()) > 0;
+					}
+					catch (NumberFormatException e) {
+						// ignore
+					}
+				}
+			}
+			if (accepted) {
+				if (name.equals("*")) {
+					wildcard = true;
+				}
+				else {
+					encodings.add(name);
+				}
+			}
+		}
+		List<String> preferred = new ArrayList<String>();
+		for (String encoding : new String [] { "gzip", "deflate" }) {
+			if (encodings.contains(encoding) || wildcard) {
+				preferred.add(encoding);
+			}
+		}
+		return preferred;
+	}
+	
 	public ReadableResource getResource(String path) throws IOException {
+		return getResource(path, 0);
+	}
+	
+	private ReadableResource getResource(String path, long lastAccess) throws IOException {
 		Resource resource;
 		if (path == null || path.isBlank()) {
 			path = defaultResource;
@@ -147,31 +319,53 @@ public class ResourceHandler implements EventHandler<HTTPRequest, HTTPResponse>
 		if (path == null) {
 			return null;
 		}
-		if (!cache.containsKey(path)) { 
-			resource = resolveResource(path);
-			if (resource == null) {
-				return null;
+		if (useCache) {
+			ReadableResource cached = cache.get(path);
+			if (cached != null) {
+				return cached;
 			}
-			if (!(resource instanceof ReadableResource)) {
-				throw new HTTPException(500, "Invalid resource: " + path);
+		}
+		resource = resolveResource(path);
+		if (resource == null) {
+			return null;
+		}
+		if (!(resource instanceof ReadableResource)) {
+			throw new HTTPException(500, "Invalid resource: " + path);
+		}
+		// large resources are not cached, they are streamed from the source
+		if (useCache && !cache.isBypassed(path)) {
+			ReadableResource cachedResource = cache.put(path, (ReadableResource) resource, allowEncoding ? resolveGzipped(path, resource) : null, lastAccess);
+			if (cachedResource != null) {
+				resource = cachedResource;
 			}
-			if (useCache) {
-				synchronized(cache) {
-					ReadableResource cachedResource = new DynamicResource(new ResourceReadableContainer((ReadableResource) resource), resource.getName(), resource.getContentType(), true);
-					cache.put(path, cachedResource);
-					resource = cachedResource;
+		}
+		return (ReadableResource) resource;
+	}
+
+	// a gzipped version that was built up front, it has to live next to the original and can not be older than it
+	private ReadableResource resolveGzipped(String path, Resource original) throws IOException {
+		for (ResourceContainer<?> root : roots) {
+			if (resolve(root, path) != null) {
+				Resource resource = resolve(root, path + ".gz");
+				if (!(resource instanceof ReadableResource)) {
+					return null;
 				}
+				if (resource instanceof TimestampedResource && original instanceof TimestampedResource) {
+					Date gzipped = ((TimestampedResource) resource).getLastModified();
+					Date modified = ((TimestampedResource) original).getLastModified();
+					if (gzipped != null && modified != null && gzipped.before(modified)) {
+						return null;
+					}
+				}
+				return (ReadableResource) resource;
 			}
 		}
-		else {
-			resource = cache.get(path);
-		}
-		return (ReadableResource) resource;
+		return null;
 	}
 
 	protected Resource resolveResource(String path) throws IOException {
 		for (ResourceContainer<?> root : roots) {
-			Resource resource = ResourceUtils.resolve(root, path);
+			Resource resource = resolve(root, path);
 			if (resource != null) {
 				// if we are using the cache, remember where the resource came from so we can remove it from cache if we unload the resource
 				if (useCache) {
@@ -188,15 +382,193 @@ public class ResourceHandler implements EventHandler<HTTPRequest, HTTPResponse>
 		return null;
 	}
 
+	// resolve in a single root, when caching we remember the misses for a while so we don't keep hitting the root for paths that don't exist
+	private Resource resolve(ResourceContainer<?> root, String path) throws IOException {
+		// without caching, new files should be visible immediately
+		if (!useCache || missTimeout <= 0) {
+			return ResourceUtils.resolve(root, path);
+		}
+		LRUCache<String, Long> rootMisses;
+		synchronized(misses) {
+			rootMisses = misses.get(root);
+			if (rootMisses == null) {
+				rootMisses = new LRUCache<String, Long>(missCacheSize);
+				misses.put(root, rootMisses);
+			}
+		}
+		synchronized(rootMisses) {
+			Long expires = rootMisses.get(path);
+			if (expires != null) {
+				if (expires > System.currentTimeMillis()) {
+					return null;
+				}
+				rootMisses.remove(path);
+			}
+		}
+		Resource resource = ResourceUtils.resolve(root, path);
+		if (resource == null) {
+			synchronized(rootMisses) {
+				rootMisses.put(path, System.currentTimeMillis() + missTimeout);
+			}
+		}
+		return resource;
+	}
+	
+	/**
+	 * Forget anything we know about the path, for example because it was changed
+	 */
+	public void invalidate(String path) {
+		cache.remove(path);
+		synchronized(misses) {
+			for (LRUCache<String, Long> rootMisses : misses.values()) {
+				synchronized(rootMisses) {
+					rootMisses.remove(path);
+					rootMisses.remove(path + ".gz");
+				}
+			}
+		}
+	}
+	
+	public void invalidate() {
+		cache.clear();
+		synchronized(misses) {
+			misses.clear();
+		}
+	}
+	
+	private void invalidateMisses(ResourceContainer<?> container) {
+		synchronized(misses) {
+			misses.remove(container);
+		}
+	}
+
+	/**
+	 * Preload everything in the roots into the cache, as far as the cache budget allows
+	 */
+	public int warmUp(int threads, long timeout) throws InterruptedException {
+		Set<String> paths = new LinkedHashSet<String>();
+		for (ResourceContainer<?> root : new ArrayList<ResourceContainer<?>>(roots)) {
+			collect(root, null, paths);
+		}
+		return warmUp(new ArrayList<String>(paths), threads, timeout);
+	}
+	
+	private void collect(ResourceContainer<?> container, String path, Set<String> paths) {
+		for (Resource child : container) {
+			String childPath = path == null ? child.getName() : path + "/" + child.getName();
+			if (child instanceof ResourceContainer) {
+				collect((ResourceContainer<?>) child, childPath, paths);
+			}
+			// precompressed files are picked up as a variant of the original
+			else if (child instanceof ReadableResource && !(allowEncoding && childPath.endsWith(".gz"))) {
+				paths.add(childPath);
+			}
+		}
+	}
+	
+	/**
+	 * Preload the given paths (for example a manifest of the hottest resources as returned by the cache) in the given order.
+	 * This stops loading when the cache budget (including the compressed variants) is used up, so the first paths are guaranteed to be cached. Once all the paths are loaded, we wait for their compressed variants.
+	 * The first paths are cached as the most recently used, should anything be evicted, it is the end of the list.
+	 * Returns the amount of resources that were loaded into the cache.
+	 */
+	public int warmUp(List<String> paths, int threads, long timeout) throws InterruptedException {
+		if (!useCache) {
+			return 0;
+		}
+		final long deadline = System.currentTimeMillis() + timeout;
+		final AtomicInteger counter = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "http-resource-warmup-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		final AtomicInteger loaded = new AtomicInteger();
+		final AtomicBoolean full = new AtomicBoolean();
+		// the hottest path gets the most recent access
+		final long newest = cache.reserveAccess(paths.size());
+		try {
+			for (int i = 0; i < paths.size(); i++) {
+				final String path = paths.get(i);
+				final long lastAccess = newest - i;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						// don't push out what we already loaded
+						if (full.get() || !hasRoom(deadline)) {
+							full.set(true);
+							return;
+						}
+						try {
+							if (getResource(path, lastAccess) instanceof ResourceCache.CachedResource) {
+								loaded.incrementAndGet();
+							}
+						}
+						catch (Exception e) {
+							// it will be resolved again when it is requested
+						}
+					}
+				});
+			}
+			executor.shutdown();
+			if (!executor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+				return loaded.get();
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		cache.awaitCompression(Math.max(0, deadline - System.currentTimeMillis()));
+		return loaded.get();
+	}
+	
+	// whether the cache can take more without evicting, the variants that are still being computed are estimated so if that is the problem we wait for them
+	private boolean hasRoom(long deadline) {
+		if (cache.getSize() + cache.getPendingSize() < cache.getEvictionTarget()) {
+			return true;
+		}
+		try {
+			cache.awaitCompression(Math.max(0, deadline - System.currentTimeMillis()));
+		}
+		catch (InterruptedException e) {
+			return false;
+		}
+		return cache.getSize() + cache.getPendingSize() < cache.getEvictionTarget();
+	}
+	
+	/**
+	 * The cached paths, most recently used first, these can be used to warm up the cache on the next start
+	 */
+	public List<String> getCachedPaths() {
+		return cache.getPaths();
+	}
+
 	public boolean isUseCache() {
 		return useCache;
 	}
 
 	public void setUseCache(boolean useCache) {
 		this.useCache = useCache;
+		if (!useCache) {
+			synchronized(misses) {
+				misses.clear();
+			}
+		}
 	}
 
 	public void addRoot(ResourceContainer<?> container) {
+		ResourceWatcher watcher = this.watcher;
+		if (watcher != null) {
+			try {
+				watcher.watch(container);
+			}
+			catch (IOException e) {
+				throw new HTTPException(500, e);
+			}
+		}
 		if (!roots.contains(container)) {
 			synchronized(roots) {
 				if (!roots.contains(container)) {
@@ -204,6 +576,8 @@ public class ResourceHandler implements EventHandler<HTTPRequest, HTTPResponse>
 				}
 			}
 		}
+		// a container that was added before may have changed in the mean time
+		invalidateMisses(container);
 	}
 	
 	public void removeRoot(ResourceContainer<?> container) {
@@ -215,23 +589,79 @@ public class ResourceHandler implements EventHandler<HTTPRequest, HTTPResponse>
 				}
 			}
 		}
+		ResourceWatcher watcher = this.watcher;
+		if (watcher != null) {
+			watcher.unwatch(container);
+		}
 		// then remove from the cache if it is in there so we don't serve up stale data
-		if (resources.containsKey(container)) {
-			synchronized(cache) {
-				for (String path : resources.get(container)) {
-					cache.remove(path);
-				}
-			}
-			synchronized(resources) {
-				resources.remove(container);
+		Set<String> paths;
+		synchronized(resources) {
+			paths = resources.remove(container);
+		}
+		if (paths != null) {
+			for (String path : paths) {
+				cache.remove(path);
 			}
 		}
+		invalidateMisses(container);
 	}
 
 	public List<ResourceContainer<?>> getRoots() {
 		return roots;
 	}
 
+	public ResourceCache getCache() {
+		return cache;
+	}
+
+	public String getImmutablePath() {
+		return immutablePath == null ? null : immutablePath.pattern();
+	}
+
+	public void setImmutablePath(String immutablePath) {
+		this.immutablePath = immutablePath == null ? null : Pattern.compile(immutablePath);
+	}
+
+	public int getMissCacheSize() {
+		return missCacheSize;
+	}
+
+	public void setMissCacheSize(int missCacheSize) {
+		this.missCacheSize = missCacheSize;
+		synchronized(misses) {
+			misses.clear();
+		}
+	}
+
+	public long getMissTimeout() {
+		return missTimeout;
+	}
+
+	public void setMissTimeout(long missTimeout) {
+		this.missTimeout = missTimeout;
+	}
+
+	public boolean isWatching() {
+		return watcher != null;
+	}
+
+	/**
+	 * Watch the roots that live on the local file system and invalidate the cache when files in them change
+	 */
+	public synchronized void setWatching(boolean watching) throws IOException {
+		if (watching && watcher == null) {
+			ResourceWatcher watcher = new ResourceWatcher(this);
+			for (ResourceContainer<?> root : new ArrayList<ResourceContainer<?>>(roots)) {
+				watcher.watch(root);
+			}
+			this.watcher = watcher;
+		}
+		else if (!watching && watcher != null) {
+			watcher.close();
+			watcher = null;
+		}
+	}
+
 	public String getDefaultResource() {
 		return defaultResource;
 	}
@@ -0,0 +1,210 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.resources.api.LocatableResource;
+import be.nabu.libs.resources.api.ResourceContainer;
+
+/**
+ * Watches the file backed roots of a resource handler and invalidates the cached (and missing) paths when files change.
+ * The watch service is not recursive, so every directory in the root is registered separately, new directories are picked up as they appear.
+ */
+public class ResourceWatcher implements Closeable {
+
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private ResourceHandler handler;
+	private WatchService watchService;
+	private Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+	private Map<ResourceContainer<?>, Path> roots = new HashMap<ResourceContainer<?>, Path>();
+	private Thread thread;
+	
+	public ResourceWatcher(ResourceHandler handler) throws IOException {
+		this.handler = handler;
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				process();
+			}
+		}, "http-resource-watcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/**
+	 * Start watching the root, returns false if it is not backed by the local file system
+	 */
+	public boolean watch(ResourceContainer<?> root) throws IOException {
+		Path path = getPath(root);
+		if (path == null) {
+			return false;
+		}
+		synchronized(this) {
+			if (!roots.containsKey(root)) {
+				roots.put(root, path);
+				register(path, false);
+			}
+		}
+		return true;
+	}
+	
+	public synchronized void unwatch(ResourceContainer<?> root) {
+		Path path = roots.remove(root);
+		if (path != null) {
+			for (WatchKey key : new HashMap<WatchKey, Path>(directories).keySet()) {
+				Path directory = directories.get(key);
+				if (directory.startsWith(path) && getRoot(directory) == null) {
+					key.cancel();
+					directories.remove(key);
+				}
+			}
+		}
+	}
+	
+	private static Path getPath(ResourceContainer<?> root) {
+		if (root instanceof LocatableResource) {
+			URI uri = ((LocatableResource) root).getUri();
+			if (uri != null && "file".equals(uri.getScheme())) {
+				Path path = Paths.get(uri);
+				if (Files.isDirectory(path)) {
+					return path.toAbsolutePath().normalize();
+				}
+			}
+		}
+		return null;
+	}
+	
+	// the root that the directory belongs to, if any
+	private Path getRoot(Path path) {
+		for (Path root : roots.values()) {
+			if (path.startsWith(root)) {
+				return root;
+			}
+		}
+		return null;
+	}
+	
+	// register the directory and everything in it, optionally invalidating the files we find because they may have appeared before we were watching
+	private void register(Path directory, final boolean invalidate) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!directories.containsValue(dir)) {
+					WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+					directories.put(key, dir);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (invalidate) {
+					invalidate(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	private void invalidate(Path file) {
+		for (Path root : roots.values()) {
+			if (file.startsWith(root) && !file.equals(root)) {
+				String path = root.relativize(file).toString().replace('\\', '/');
+				handler.invalidate(path);
+				// a precompressed file is a variant of the original
+				if (path.endsWith(".gz")) {
+					handler.invalidate(path.substring(0, path.length() - ".gz".length()));
+				}
+			}
+		}
+	}
+	
+	private void process() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			}
+			catch (ClosedWatchServiceException e) {
+				break;
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+			synchronized(this) {
+				Path directory = directories.get(key);
+				if (directory != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						// we missed events, we no longer know what changed
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							handler.invalidate();
+							continue;
+						}
+						Path file = directory.resolve((Path) event.context());
+						invalidate(file);
+						if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+							try {
+								register(file, true);
+							}
+							catch (IOException e) {
+								logger.warn("Could not watch directory: " + file, e);
+							}
+						}
+					}
+					// the directory itself is gone, we can't tell which files went with it
+					if (!key.reset()) {
+						directories.remove(key);
+						if (getRoot(directory) != null) {
+							handler.invalidate();
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+		synchronized(this) {
+			directories.clear();
+			roots.clear();
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of how much body data is buffered in memory across all pipelines.
+ * Providers that buffer on the heap reserve the expected size of a body before they create a resource for it, if the budget is exhausted they should refuse the message (or fall back to disk if they can).
+ * The reservation is attached to the resource, it is released when the exchange is finished (see {@link MessageResources}) or, as a safety net, when the resource is garbage collected.
+ */
+public class BodyBudget {
+
+	private static volatile BodyBudget instance = new BodyBudget(
+		// by default bodies can take up a quarter of the heap, set it to 0 to only track the usage without a limit
+		Long.parseLong(System.getProperty("http.bodyBudget", "" + (Runtime.getRuntime().maxMemory() / 4))),
+		Long.parseLong(System.getProperty("http.bodyBudget.chunkedEstimate", "" + (1024 * 1024))),
+		Integer.parseInt(System.getProperty("http.bodyBudget.retryAfter", "5"))
+	);
+	
+	public static BodyBudget getInstance() {
+		return instance;
+	}
+	
+	public static void setInstance(BodyBudget instance) {
+		BodyBudget.instance = instance;
+	}
+	
+	private long limit;
+	// for chunked messages we don't know the size up front, we reserve this amount instead
+	private long chunkedEstimate;
+	// the amount of seconds a rejected client is asked to wait before trying again
+	private int retryAfter;
+	
+	private AtomicLong inUse = new AtomicLong(), peak = new AtomicLong(), rejections = new AtomicLong(), reservations = new AtomicLong();
+	
+	private ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+	private Map<Object, Reservation> owners = Collections.synchronizedMap(new WeakHashMap<Object, Reservation>());
+	private Set<Reservation> active = Collections.newSetFromMap(new ConcurrentHashMap<Reservation, Boolean>());
+	
+	public BodyBudget(long limit, long chunkedEstimate, int retryAfter) {
+		this.limit = limit;
+		this.chunkedEstimate = chunkedEstimate;
+		this.retryAfter = retryAfter;
+	}
+	
+	/**
+	 * The amount that should be reserved for a message with the given content length (null if unknown) and maximum size (0 if unlimited)
+	 */
+	public long getReservation(Long contentLength, long maxSize) {
+		long amount = contentLength == null ? chunkedEstimate : contentLength;
+		return maxSize > 0 ? Math.min(amount, maxSize) : amount;
+	}
+	
+	public boolean reserve(long amount) {
+		return reserve(amount, true);
+	}
+	
+	/**
+	 * Like {@link #reserve(long)} but a refusal is not counted as a rejection, this is for callers that have an alternative (like spilling to disk)
+	 */
+	public boolean tryReserve(long amount) {
+		return reserve(amount, false);
+	}
+	
+	private boolean reserve(long amount, boolean countRejection) {
+		cleanup();
+		while (true) {
+			long current = inUse.get();
+			if (limit > 0 && current + amount > limit) {
+				if (countRejection) {
+					rejections.incrementAndGet();
+				}
+				return false;
+			}
+			else if (inUse.compareAndSet(current, current + amount)) {
+				reservations.incrementAndGet();
+				long newValue = current + amount;
+				long currentPeak;
+				while ((currentPeak = peak.get()) < newValue && !peak.compareAndSet(currentPeak, newValue));
+				return true;
+			}
+		}
+	}
+	
+	public void release(long amount) {
+		inUse.addAndGet(-amount);
+	}
+	
+	/**
+	 * Ties a reservation to an owner, the reservation is released when the owner is released or garbage collected
+	 */
+	public void attach(Object owner, long amount) {
+		Reservation reservation = new Reservation(owner, collected, amount);
+		active.add(reservation);
+		Reservation previous = owners.put(owner, reservation);
+		if (previous != null) {
+			previous.release();
+		}
+	}
+	
+	public void release(Object owner) {
+		if (owner != null) {
+			Reservation reservation = owners.remove(owner);
+			if (reservation != null) {
+				reservation.release();
+			}
+		}
+	}
+	
+	private void cleanup() {
+		Reservation reservation;
+		while ((reservation = (Reservation) collected.poll()) != null) {
+			reservation.release();
+		}
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public void setLimit(long limit) {
+		this.limit = limit;
+	}
+
+	public long getChunkedEstimate() {
+		return chunkedEstimate;
+	}
+
+	public void setChunkedEstimate(long chunkedEstimate) {
+		this.chunkedEstimate = chunkedEstimate;
+	}
+
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+	public void setRetryAfter(int retryAfter) {
+		this.retryAfter = retryAfter;
+	}
+	
+	/**
+	 * The amount of bytes currently reserved
+	 */
+	public long getInUse() {
+		return inUse.get();
+	}
+	
+	/**
+	 * The highest amount of bytes that was reserved at any one time
+	 */
+	public long getPeak() {
+		return peak.get();
+	}
+	
+	/**
+	 * The amount of reservations that were refused because the budget was exhausted
+	 */
+	public long getRejections() {
+		return rejections.get();
+	}
+	
+	/**
+	 * The amount of reservations that were granted
+	 */
+	public long getReservations() {
+		return reservations.get();
+	}
+	
+	private class Reservation extends WeakReference<Object> {
+		private long amount;
+		private boolean released;
+		
+		public Reservation(Object referent, ReferenceQueue<Object> queue, long amount) {
+			super(referent, queue);
+			this.amount = amount;
+		}
+		
+		private synchronized void release() {
+			if (!released) {
+				released = true;
+				active.remove(this);
+				inUse.addAndGet(-amount);
+			}
+		}
+	}
+}
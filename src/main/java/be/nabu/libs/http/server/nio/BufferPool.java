@@ -0,0 +1,54 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import be.nabu.utils.io.api.ByteBuffer;
+
+/**
+ * Hands out the buffers that are used on the http I/O path.
+ * Everything that is acquired must be released again once it is no longer in use, the pool itself decides whether or not it is kept for reuse.
+ */
+public interface BufferPool {
+	/**
+	 * Returns an array of at least the requested size, it may be bigger and it is not cleared
+	 */
+	public byte [] acquire(int size);
+	public void release(byte [] bytes);
+	
+	/**
+	 * Returns an empty buffer of size {@link HTTPMessageParser#COPY_SIZE}
+	 */
+	public ByteBuffer acquireCopyBuffer();
+	public void releaseCopyBuffer(ByteBuffer buffer);
+	
+	/**
+	 * The percentage (0-1) of requests that could be served from the pool
+	 */
+	public double getHitRate();
+	public long getHits();
+	public long getMisses();
+	/**
+	 * The amount of buffers that have been acquired but not yet released
+	 */
+	public long getOutstanding();
+	/**
+	 * The amount of bytes in the outstanding buffers
+	 */
+	public long getBytesInUse();
+}
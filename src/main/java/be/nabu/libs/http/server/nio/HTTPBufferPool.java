@@ -0,0 +1,279 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.buffers.bytes.CyclicByteBuffer;
+
+/**
+ * The default buffer pool, arrays are pooled per size class (powers of two) in a bounded shared pool with a small cache per thread in front of it.
+ * Sizes beyond the largest class are simply allocated and left to the garbage collector.
+ * The buffers live on the heap: everything on this path works with byte arrays and wrapped containers, there is no direct channel access that would benefit from off-heap memory.
+ * In debug mode every buffer that is acquired is tracked, if it is garbage collected without being released, it is reported along with where it was acquired.
+ */
+public class HTTPBufferPool implements BufferPool {
+
+	private static final int MIN_CLASS_SHIFT = 9;
+	private static final int MAX_CLASS_SHIFT = 16;
+	private static final int CLASSES = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+	
+	private static volatile BufferPool instance = new HTTPBufferPool(
+		Integer.parseInt(System.getProperty("http.bufferPool.size", "256")), 
+		Integer.parseInt(System.getProperty("http.bufferPool.threadCache", "4")),
+		Boolean.parseBoolean(System.getProperty("http.bufferPool.debug", "false"))
+	);
+	
+	public static BufferPool getInstance() {
+		return instance;
+	}
+	
+	public static void setInstance(BufferPool instance) {
+		HTTPBufferPool.instance = instance;
+	}
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	
+	/**
+	 * The maximum amount of buffers that are kept per size class in the shared pool
+	 */
+	private int maxSize;
+	/**
+	 * The maximum amount of buffers that are kept per size class per thread
+	 */
+	private int threadCacheSize;
+	private boolean debug;
+	
+	private BlockingQueue<byte[]> [] arrays;
+	private BlockingQueue<ByteBuffer> copyBuffers;
+	private ThreadLocal<ArrayDeque<byte[]>[]> threadCaches = new ThreadLocal<ArrayDeque<byte[]>[]>();
+	
+	private AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), outstanding = new AtomicLong(), bytesInUse = new AtomicLong(), leaks = new AtomicLong();
+	
+	// leak detection, only used in debug mode
+	private ReferenceQueue<Object> released = new ReferenceQueue<Object>();
+	private Map<Object, LeakTracker> trackers = Collections.synchronizedMap(new WeakHashMap<Object, LeakTracker>());
+	private Set<LeakTracker> activeTrackers = Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+	
+	@SuppressWarnings("unchecked")
+	public HTTPBufferPool(int maxSize, int threadCacheSize, boolean debug) {
+		this.maxSize = maxSize;
+		this.threadCacheSize = threadCacheSize;
+		this.debug = debug;
+		this.arrays = new BlockingQueue[CLASSES];
+		for (int i = 0; i < CLASSES; i++) {
+			arrays[i] = new ArrayBlockingQueue<byte[]>(Math.max(1, maxSize));
+		}
+		this.copyBuffers = new ArrayBlockingQueue<ByteBuffer>(Math.max(1, maxSize));
+	}
+	
+	public HTTPBufferPool(int maxSize) {
+		this(maxSize, 4, false);
+	}
+	
+	@Override
+	public byte [] acquire(int size) {
+		int sizeClass = getSizeClass(size);
+		byte [] bytes = null;
+		if (sizeClass >= 0) {
+			ArrayDeque<byte[]> threadCache = getThreadCache(sizeClass);
+			if (threadCache != null) {
+				bytes = threadCache.poll();
+			}
+			if (bytes == null) {
+				bytes = arrays[sizeClass].poll();
+			}
+		}
+		if (bytes == null) {
+			misses.incrementAndGet();
+			bytes = new byte[sizeClass >= 0 ? 1 << (sizeClass + MIN_CLASS_SHIFT) : size];
+		}
+		else {
+			hits.incrementAndGet();
+		}
+		acquired(bytes, bytes.length);
+		return bytes;
+	}
+	
+	@Override
+	public void release(byte [] bytes) {
+		if (bytes != null) {
+			released(bytes, bytes.length);
+			int sizeClass = getSizeClass(bytes.length);
+			// only arrays that exactly match a size class can be reused
+			if (maxSize > 0 && sizeClass >= 0 && bytes.length == 1 << (sizeClass + MIN_CLASS_SHIFT)) {
+				ArrayDeque<byte[]> threadCache = getThreadCache(sizeClass);
+				if (threadCache == null || threadCache.size() >= threadCacheSize || !threadCache.offer(bytes)) {
+					// if the pool is full, the garbage collector can have it
+					arrays[sizeClass].offer(bytes);
+				}
+			}
+		}
+	}
+	
+	@Override
+	public ByteBuffer acquireCopyBuffer() {
+		ByteBuffer buffer = copyBuffers.poll();
+		if (buffer == null) {
+			misses.incrementAndGet();
+			buffer = new CyclicByteBuffer(HTTPMessageParser.COPY_SIZE);
+		}
+		else {
+			hits.incrementAndGet();
+		}
+		acquired(buffer, HTTPMessageParser.COPY_SIZE);
+		return buffer;
+	}
+	
+	@Override
+	public void releaseCopyBuffer(ByteBuffer buffer) {
+		if (buffer != null) {
+			released(buffer, HTTPMessageParser.COPY_SIZE);
+			// we can only reuse buffers that were fully drained
+			if (maxSize > 0 && buffer.remainingData() == 0) {
+				copyBuffers.offer(buffer);
+			}
+		}
+	}
+	
+	private ArrayDeque<byte[]> getThreadCache(int sizeClass) {
+		if (threadCacheSize <= 0) {
+			return null;
+		}
+		ArrayDeque<byte[]>[] caches = threadCaches.get();
+		if (caches == null) {
+			@SuppressWarnings("unchecked")
+			ArrayDeque<byte[]>[] newCaches = new ArrayDeque[CLASSES];
+			caches = newCaches;
+			threadCaches.set(caches);
+		}
+		if (caches[sizeClass] == null) {
+			caches[sizeClass] = new ArrayDeque<byte[]>(threadCacheSize);
+		}
+		return caches[sizeClass];
+	}
+	
+	// the smallest class that can hold the given size, -1 if it is too big to pool
+	private static int getSizeClass(int size) {
+		if (size <= 1 << MIN_CLASS_SHIFT) {
+			return 0;
+		}
+		int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+		return shift > MAX_CLASS_SHIFT ? -1 : shift - MIN_CLASS_SHIFT;
+	}
+	
+	private void acquired(Object buffer, int size) {
+		outstanding.incrementAndGet();
+		bytesInUse.addAndGet(size);
+		if (debug) {
+			reportLeaks();
+			LeakTracker tracker = new LeakTracker(buffer, released, size);
+			activeTrackers.add(tracker);
+			trackers.put(buffer, tracker);
+		}
+	}
+	
+	private void released(Object buffer, int size) {
+		outstanding.decrementAndGet();
+		bytesInUse.addAndGet(-size);
+		if (debug) {
+			LeakTracker tracker = trackers.remove(buffer);
+			if (tracker != null) {
+				tracker.clear();
+				activeTrackers.remove(tracker);
+			}
+		}
+	}
+	
+	private void reportLeaks() {
+		LeakTracker tracker;
+		while ((tracker = (LeakTracker) released.poll()) != null) {
+			if (activeTrackers.remove(tracker)) {
+				leaks.incrementAndGet();
+				// it will never be released, correct the statistics
+				outstanding.decrementAndGet();
+				bytesInUse.addAndGet(-tracker.size);
+				logger.error("A buffer of " + tracker.size + " bytes was garbage collected without being released to the pool", tracker.allocation);
+			}
+		}
+	}
+	
+	@Override
+	public double getHitRate() {
+		long hits = this.hits.get();
+		long total = hits + misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	@Override
+	public long getOutstanding() {
+		return outstanding.get();
+	}
+
+	@Override
+	public long getBytesInUse() {
+		return bytesInUse.get();
+	}
+	
+	/**
+	 * The amount of buffers that were garbage collected without being released, only tracked in debug mode
+	 */
+	public long getLeaks() {
+		return leaks.get();
+	}
+	
+	public boolean isDebug() {
+		return debug;
+	}
+	
+	private static class LeakTracker extends WeakReference<Object> {
+		private Exception allocation;
+		private int size;
+		
+		public LeakTracker(Object referent, ReferenceQueue<Object> queue, int size) {
+			super(referent, queue);
+			this.size = size;
+			this.allocation = new Exception("Buffer acquired here");
+		}
+	}
+}
@@ -0,0 +1,300 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.impl.MimeHeader;
+
+/**
+ * An index on the raw bytes of the headers in a message head.
+ * Only the offsets of the header names and values are recorded, the well known headers that the server itself needs are resolved through a fixed slot table.
+ * The headers handed out are flyweights that only materialize an actual mime header when someone asks for the value.
+ * The index keeps its own copy of the bytes so it is not affected by the reuse of any receive buffers.
+ */
+public class HTTPHeadIndex {
+	
+	public static final int HOST = 0;
+	public static final int CONTENT_LENGTH = 1;
+	public static final int TRANSFER_ENCODING = 2;
+	public static final int CONNECTION = 3;
+	public static final int CONTENT_ENCODING = 4;
+	public static final int CONTENT_TYPE = 5;
+	
+	private static final String [] WELL_KNOWN = new String [] { "Host", "Content-Length", "Transfer-Encoding", "Connection", "Content-Encoding", "Content-Type" };
+	private static final byte [][] WELL_KNOWN_BYTES = new byte[WELL_KNOWN.length][];
+	
+	static {
+		for (int i = 0; i < WELL_KNOWN.length; i++) {
+			WELL_KNOWN_BYTES[i] = WELL_KNOWN[i].getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+	
+	// the raw header bytes, including the closing empty line
+	private byte [] bytes;
+	// for each header: name start, name end, value start, value end (the value may span multiple lines if it is folded)
+	private int [] offsets = new int[64];
+	private boolean [] folded = new boolean[16];
+	private int size;
+	// for each well known header the index of the first occurrence, -1 if it is not present
+	private int [] slots = new int[WELL_KNOWN.length];
+	private Header [] headers;
+	
+	private HTTPHeadIndex(byte [] bytes) {
+		this.bytes = bytes;
+		Arrays.fill(slots, -1);
+	}
+	
+	/**
+	 * Indexes the headers in the given region, the region must contain the complete header block up to and including the empty line
+	 */
+	public static HTTPHeadIndex parse(byte [] source, int offset, int length) throws ParseException {
+		HTTPHeadIndex index = new HTTPHeadIndex(Arrays.copyOfRange(source, offset, offset + length));
+		index.parse();
+		return index;
+	}
+	
+	private void parse() throws ParseException {
+		int position = 0;
+		while (position < bytes.length) {
+			int lineEnd = HTTPLineParser.indexOf(bytes, position, bytes.length, (byte) '\n');
+			if (lineEnd < 0) {
+				lineEnd = bytes.length;
+			}
+			int end = lineEnd > position && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+			// the empty line ends the headers
+			if (end == position) {
+				break;
+			}
+			// a folded header continues the value of the previous one
+			if (bytes[position] == ' ' || bytes[position] == '\t') {
+				if (size == 0) {
+					throw new ParseException("The first header line can not be a continuation", position);
+				}
+				offsets[((size - 1) * 4) + 3] = end;
+				folded[size - 1] = true;
+			}
+			else {
+				int colon = HTTPLineParser.indexOf(bytes, position, end, (byte) ':');
+				int nameEnd = colon < 0 ? -1 : trimEnd(position, colon);
+				if (nameEnd <= position) {
+					throw new ParseException("Invalid header: " + new String(bytes, position, end - position, StandardCharsets.ISO_8859_1), position);
+				}
+				add(position, nameEnd, trimStart(colon + 1, end), end);
+			}
+			position = lineEnd + 1;
+		}
+	}
+	
+	private void add(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+		if ((size + 1) * 4 > offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			folded = Arrays.copyOf(folded, folded.length * 2);
+		}
+		offsets[size * 4] = nameStart;
+		offsets[(size * 4) + 1] = nameEnd;
+		offsets[(size * 4) + 2] = valueStart;
+		offsets[(size * 4) + 3] = valueEnd;
+		for (int i = 0; i < WELL_KNOWN_BYTES.length; i++) {
+			if (slots[i] < 0 && matches(nameStart, nameEnd, WELL_KNOWN_BYTES[i], true)) {
+				slots[i] = size;
+				break;
+			}
+		}
+		size++;
+	}
+	
+	/**
+	 * Returns the raw value of the first occurrence of a well known header, null if it is not present
+	 */
+	public String getValue(int slot) {
+		return slots[slot] < 0 ? null : getRawValue(slots[slot]);
+	}
+	
+	/**
+	 * Parses the content length straight from the bytes, returns null if there is none
+	 */
+	public Long getContentLength() throws ParseException {
+		int index = slots[CONTENT_LENGTH];
+		if (index < 0) {
+			return null;
+		}
+		int start = offsets[(index * 4) + 2];
+		int end = trimEnd(start, offsets[(index * 4) + 3]);
+		// anything beyond 18 digits would overflow
+		if (end <= start || end - start > 18) {
+			throw new ParseException("Invalid content length: " + getRawValue(index), start);
+		}
+		long contentLength = 0;
+		for (int i = start; i < end; i++) {
+			if (bytes[i] < '0' || bytes[i] > '9') {
+				throw new ParseException("Invalid content length: " + getRawValue(index), i);
+			}
+			contentLength = (contentLength * 10) + (bytes[i] - '0');
+		}
+		return contentLength;
+	}
+	
+	/**
+	 * The flyweight headers, in order of appearance
+	 */
+	public Header[] getHeaders() {
+		if (headers == null) {
+			Header [] headers = new Header[size];
+			for (int i = 0; i < size; i++) {
+				headers[i] = new IndexedHeader(i);
+			}
+			this.headers = headers;
+		}
+		return headers;
+	}
+	
+	/**
+	 * The raw bytes of the headers, including the closing empty line
+	 */
+	public byte [] getBytes() {
+		return bytes;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	private String getName(int index) {
+		int start = offsets[index * 4];
+		int end = offsets[(index * 4) + 1];
+		// if it matches a well known header exactly, we can reuse the constant
+		for (int i = 0; i < WELL_KNOWN_BYTES.length; i++) {
+			if (slots[i] == index && matches(start, end, WELL_KNOWN_BYTES[i], false)) {
+				return WELL_KNOWN[i];
+			}
+		}
+		return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+	
+	private String getRawValue(int index) {
+		int start = offsets[(index * 4) + 2];
+		int end = trimEnd(start, offsets[(index * 4) + 3]);
+		return folded[index] ? unfold(start, end) : new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+	
+	private String getLine(int index) {
+		int start = offsets[index * 4];
+		int end = trimEnd(start, offsets[(index * 4) + 3]);
+		return folded[index] ? unfold(start, end) : new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+	
+	// replaces every linefeed and the whitespace that follows it with a single space
+	private String unfold(int start, int end) {
+		StringBuilder builder = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == '\r' || bytes[i] == '\n') {
+				while (i + 1 < end && (bytes[i + 1] == '\r' || bytes[i + 1] == '\n' || bytes[i + 1] == ' ' || bytes[i + 1] == '\t')) {
+					i++;
+				}
+				builder.append(' ');
+			}
+			else {
+				builder.append((char) (bytes[i] & 0xff));
+			}
+		}
+		return builder.toString();
+	}
+	
+	private boolean matches(int start, int end, byte [] expected, boolean ignoreCase) {
+		if (end - start != expected.length) {
+			return false;
+		}
+		for (int i = 0; i < expected.length; i++) {
+			// the header names are ascii, folding the case bit is enough for letters
+			byte actual = bytes[start + i];
+			if (actual != expected[i] && !(ignoreCase && Character.isLetter(expected[i]) && (actual | 0x20) == (expected[i] | 0x20))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private int trimStart(int from, int to) {
+		while (from < to && (bytes[from] == ' ' || bytes[from] == '\t')) {
+			from++;
+		}
+		return from;
+	}
+	
+	private int trimEnd(int from, int to) {
+		while (to > from && (bytes[to - 1] == ' ' || bytes[to - 1] == '\t' || bytes[to - 1] == '\r' || bytes[to - 1] == '\n')) {
+			to--;
+		}
+		return to;
+	}
+	
+	/**
+	 * The name is resolved cheaply (it is used to look up headers), the full mime header is only parsed when the value is requested
+	 */
+	private class IndexedHeader implements Header {
+		
+		private int index;
+		private String name;
+		private Header header;
+		
+		public IndexedHeader(int index) {
+			this.index = index;
+		}
+		
+		@Override
+		public String getName() {
+			if (name == null) {
+				name = HTTPHeadIndex.this.getName(index);
+			}
+			return name;
+		}
+
+		@Override
+		public String getValue() {
+			return materialize().getValue();
+		}
+
+		@Override
+		public String[] getComments() {
+			return materialize().getComments();
+		}
+		
+		private Header materialize() {
+			if (header == null) {
+				try {
+					header = MimeHeader.parseHeader(getLine(index));
+				}
+				catch (Exception e) {
+					// the line was validated when indexing, this should not occur
+					header = new MimeHeader(getName(), getRawValue(index));
+				}
+			}
+			return header;
+		}
+
+		@Override
+		public String toString() {
+			return materialize().toString();
+		}
+	}
+}
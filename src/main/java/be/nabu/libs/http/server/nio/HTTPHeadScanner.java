@@ -0,0 +1,94 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+/**
+ * Searches the raw bytes of an incoming message for the end of the head (either "\r\n\r\n" or "\n\n").
+ * The scan is resumable: if the head is not complete yet, the next call picks up where the previous one left off so partial packets are not rescanned.
+ * While scanning we also remember where the initial line ends.
+ */
+public class HTTPHeadScanner {
+
+	// the offset where the next scan will start
+	private int offset;
+	// the index of the linefeed that ends the initial line, -1 if not found yet
+	private int lineEnd = -1;
+	// the amount of bytes in the head (including the empty line), -1 if not found yet
+	private int headEnd = -1;
+	
+	/**
+	 * Scans the given bytes (which must always start at the beginning of the message) up to the given length.
+	 * Returns the length of the head (including the closing empty line) or -1 if the head is not complete yet.
+	 */
+	public int scan(byte [] bytes, int length) {
+		if (headEnd >= 0) {
+			return headEnd;
+		}
+		for (int i = offset; i < length; i++) {
+			if (bytes[i] == '\n') {
+				if (lineEnd < 0) {
+					lineEnd = i;
+				}
+				// we need at least one more byte to decide
+				if (i + 1 >= length) {
+					offset = i;
+					return -1;
+				}
+				else if (bytes[i + 1] == '\n') {
+					headEnd = i + 2;
+					return headEnd;
+				}
+				else if (bytes[i + 1] == '\r') {
+					// we need the linefeed after the carriage return to decide
+					if (i + 2 >= length) {
+						offset = i;
+						return -1;
+					}
+					else if (bytes[i + 2] == '\n') {
+						headEnd = i + 3;
+						return headEnd;
+					}
+				}
+			}
+		}
+		offset = length;
+		return -1;
+	}
+
+	public int getLineEnd() {
+		return lineEnd;
+	}
+
+	public int getHeadEnd() {
+		return headEnd;
+	}
+
+	/**
+	 * The amount of bytes that have been scanned already
+	 */
+	public int getOffset() {
+		return offset;
+	}
+	
+	public void reset() {
+		offset = 0;
+		lineEnd = -1;
+		headEnd = -1;
+	}
+}
@@ -0,0 +1,201 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses the parts of the initial line (request line or status line) straight from the received bytes.
+ * Known methods and versions are mapped to shared constants so they don't need to be allocated for every message.
+ */
+public class HTTPLineParser {
+
+	public static final String GET = "GET";
+	public static final String HEAD = "HEAD";
+	public static final String POST = "POST";
+	public static final String PUT = "PUT";
+	public static final String DELETE = "DELETE";
+	public static final String PATCH = "PATCH";
+	public static final String OPTIONS = "OPTIONS";
+	public static final String TRACE = "TRACE";
+	public static final String CONNECT = "CONNECT";
+	// webdav
+	public static final String PROPFIND = "PROPFIND";
+	public static final String PROPPATCH = "PROPPATCH";
+	public static final String MKCOL = "MKCOL";
+	public static final String COPY = "COPY";
+	public static final String MOVE = "MOVE";
+	public static final String LOCK = "LOCK";
+	public static final String UNLOCK = "UNLOCK";
+	
+	public static final double HTTP_0_9 = 0.9;
+	public static final double HTTP_1_0 = 1.0;
+	public static final double HTTP_1_1 = 1.1;
+	public static final double HTTP_2_0 = 2.0;
+	
+	public static final byte [] VERSION_PREFIX = "HTTP/".getBytes(StandardCharsets.US_ASCII);
+	
+	// the most used methods come first
+	private static final String [] METHODS = new String [] { GET, POST, PUT, DELETE, HEAD, OPTIONS, PATCH, TRACE, CONNECT, PROPFIND, PROPPATCH, MKCOL, COPY, MOVE, LOCK, UNLOCK };
+	private static final byte [][] METHOD_BYTES = new byte[METHODS.length][];
+	
+	static {
+		for (int i = 0; i < METHODS.length; i++) {
+			METHOD_BYTES[i] = METHODS[i].getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+	
+	/**
+	 * Returns the shared constant for known methods, unknown methods are allocated as is
+	 */
+	public static String getMethod(byte [] bytes, int offset, int length) {
+		for (int i = 0; i < METHOD_BYTES.length; i++) {
+			if (regionMatches(bytes, offset, length, METHOD_BYTES[i])) {
+				return METHODS[i];
+			}
+		}
+		return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * Parses a version of the form "HTTP/1.1", surrounding whitespace is ignored.
+	 * Returns -1 if it is not a valid version.
+	 */
+	public static double getVersion(byte [] bytes, int offset, int length) {
+		int start = trimStart(bytes, offset, offset + length);
+		int end = trimEnd(bytes, start, offset + length);
+		if (!regionMatches(bytes, start, Math.min(VERSION_PREFIX.length, end - start), VERSION_PREFIX)) {
+			return -1;
+		}
+		start += VERSION_PREFIX.length;
+		// the known versions map to a constant
+		if (end - start == 3 && bytes[start + 1] == '.') {
+			byte major = bytes[start];
+			byte minor = bytes[start + 2];
+			if (major == '1' && minor == '1') {
+				return HTTP_1_1;
+			}
+			else if (major == '1' && minor == '0') {
+				return HTTP_1_0;
+			}
+			else if (major == '2' && minor == '0') {
+				return HTTP_2_0;
+			}
+			else if (major == '0' && minor == '9') {
+				return HTTP_0_9;
+			}
+		}
+		if (end <= start) {
+			return -1;
+		}
+		for (int i = start; i < end; i++) {
+			if ((bytes[i] < '0' || bytes[i] > '9') && bytes[i] != '.') {
+				return -1;
+			}
+		}
+		try {
+			return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Parses a numeric status code, returns -1 if it is not valid
+	 */
+	public static int getCode(byte [] bytes, int offset, int length) {
+		int start = trimStart(bytes, offset, offset + length);
+		int end = trimEnd(bytes, start, offset + length);
+		// status codes are three digits, we allow some leeway but don't want to overflow
+		if (end <= start || end - start > 9) {
+			return -1;
+		}
+		int code = 0;
+		for (int i = start; i < end; i++) {
+			if (bytes[i] < '0' || bytes[i] > '9') {
+				return -1;
+			}
+			code = (code * 10) + (bytes[i] - '0');
+		}
+		return code;
+	}
+	
+	/**
+	 * Returns the trimmed text in the given region
+	 */
+	public static String getText(byte [] bytes, int offset, int length) {
+		int start = trimStart(bytes, offset, offset + length);
+		int end = trimEnd(bytes, start, offset + length);
+		return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+	
+	public static int indexOf(byte [] bytes, int from, int to, byte value) {
+		for (int i = from; i < to; i++) {
+			if (bytes[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	public static int indexOf(byte [] bytes, int from, int to, byte [] pattern) {
+		for (int i = from; i <= to - pattern.length; i++) {
+			if (regionMatches(bytes, i, pattern.length, pattern)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	public static int lastIndexOf(byte [] bytes, int from, int to, byte [] pattern) {
+		for (int i = to - pattern.length; i >= from; i--) {
+			if (regionMatches(bytes, i, pattern.length, pattern)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private static boolean regionMatches(byte [] bytes, int offset, int length, byte [] expected) {
+		if (length != expected.length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (bytes[offset + i] != expected[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static int trimStart(byte [] bytes, int from, int to) {
+		while (from < to && bytes[from] <= ' ' && bytes[from] >= 0) {
+			from++;
+		}
+		return from;
+	}
+	
+	private static int trimEnd(byte [] bytes, int from, int to) {
+		while (to > from && bytes[to - 1] <= ' ' && bytes[to - 1] >= 0) {
+			to--;
+		}
+		return to;
+	}
+}
@@ -17,12 +17,11 @@
 
 package be.nabu.libs.http.server.nio;
 
-import java.io.Closeable;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -37,6 +36,7 @@ import be.nabu.libs.http.api.server.EnrichingMessageDataProvider;
 import be.nabu.libs.http.api.server.MessageDataProvider;
 import be.nabu.libs.http.core.HTTPUtils;
 import be.nabu.libs.http.core.ServerHeader;
+import be.nabu.libs.http.server.HTTPDateClock;
 import be.nabu.libs.nio.PipelineUtils;
 import be.nabu.libs.nio.api.Pipeline;
 import be.nabu.libs.nio.api.StreamingMessageParser;
@@ -50,20 +50,16 @@ import be.nabu.utils.cep.impl.CEPUtils;
 import be.nabu.utils.cep.impl.NetworkedComplexEventImpl;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
-import be.nabu.utils.io.api.CharBuffer;
-import be.nabu.utils.io.api.DelimitedCharContainer;
 import be.nabu.utils.io.api.EventfulSubscriber;
 import be.nabu.utils.io.api.EventfulSubscription;
 import be.nabu.utils.io.api.PushbackContainer;
 import be.nabu.utils.io.api.ReadableContainer;
 import be.nabu.utils.io.api.WritableContainer;
 import be.nabu.utils.io.buffers.bytes.ByteBufferFactory;
-import be.nabu.utils.io.buffers.bytes.CyclicByteBuffer;
 import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
 import be.nabu.utils.io.containers.EventfulContainerImpl;
 import be.nabu.utils.io.containers.SynchronizedReadableContainer;
 import be.nabu.utils.io.containers.SynchronizedWritableContainer;
-import be.nabu.utils.io.containers.chars.ReadableStraightByteToCharContainer;
 import be.nabu.utils.mime.api.Header;
 import be.nabu.utils.mime.api.ModifiableContentPart;
 import be.nabu.utils.mime.api.ModifiablePart;
@@ -77,34 +73,45 @@ import be.nabu.utils.mime.util.ChunkedReadableByteContainer;
 import be.nabu.utils.mime.util.ChunkedWritableByteContainer;
 
 /**
- * TODO Optimization: search straight in the bytes of the dynamic for the combination "\r\n\r\n" (or \n\n) before parsing the request+headers
- * Unlikely to do much though as standard packets are up to 64kb in size and standard headers are 0.5-2kb in size in general so they should almost always arrive in a single block
+ * The head (initial line + headers) is framed by scanning the raw bytes for "\r\n\r\n" (or \n\n), it is only parsed once it is complete.
  */
 public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart> {
 
 	public static final int COPY_SIZE = 8192;
 	
+	// most heads fit in this, it grows if necessary
+	private static final int INITIAL_HEAD_SIZE = 2048;
+	
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	
 	private DynamicByteBuffer initialBuffer;
 	private Header [] headers;
+	private HTTPHeadIndex headIndex;
 	private MessageDataProvider dataProvider;
 	private Resource resource;
 	private WritableContainer<ByteBuffer> writable, chunkedWritable;
 	private ChunkedReadableByteContainer chunked;
 	private ModifiablePart part;
-	private byte [] pair = new byte[2];
-	private ByteBuffer copyBuffer = new CyclicByteBuffer(COPY_SIZE);
+	// the head bytes and copy buffer are only borrowed from the pool while we are actively parsing
+	private byte [] headBytes;
+	private HTTPHeadScanner headScanner = new HTTPHeadScanner();
+	private ByteBuffer copyBuffer;
 	private boolean allowNoContent = Boolean.parseBoolean(System.getProperty("http.allowNoContent", "true"));
 	
 	// this refers to rfc2616 article 4.4 Message Length option 5
 	// i have only ever seen this in the wild in a single situation
 	// the behavior (if you disable this) is that the parser assumes there is no content and you get an empty response
 	private boolean allowNoMessageSizeForClosedConnections;
-	private boolean streamingMode = false;
+	private boolean streamingMode = false, defaultStreamingMode = false;
+	// if set, this decides per message whether we stream it, overriding the default streaming mode
+	private HTTPStreamingDecider streamingDecider;
+	private boolean streamingDecided, serverHeadersSet;
 	private volatile boolean streamingDone = false;
 	
-	private String request;
+	private static final byte [] ENCODED_NUL = "%00".getBytes(StandardCharsets.US_ASCII);
+	
+	// the length of the initial line (without linefeeds) in the head bytes, -1 as long as it has not been parsed
+	private int initialLineLength = -1;
 	private long totalRead, totalChunkRead;
 	private int maxInitialLineLength = 4096;
 	private int maxHeaderSize = 8192;
@@ -124,6 +131,8 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 	private boolean isResponse;
 	
 	private ByteBuffer streamingBuffer;
+	// the state of the body that is currently being streamed, the closures handed out with a message only ever see the state of that message
+	private StreamedBody streamedBody;
 	
 	/**
 	 * When writing to the backend, do we want to include the headers?
@@ -150,6 +159,7 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 		this.isResponse = isResponse;
 		this.eventTarget = eventTarget;
 		this.streamingMode = streamingMode;
+		this.defaultStreamingMode = streamingMode;
 		initialBuffer = new DynamicByteBuffer();
 		initialBuffer.mark();
 		
@@ -178,118 +188,126 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 	@SuppressWarnings("resource")
 	@Override
 	public void push(PushbackContainer<ByteBuffer> content) throws IOException, ParseException {
-		if (request == null) {
+		if (initialLineLength < 0 && !isDone()) {
+			// reset so we see all the data
 			initialBuffer.reset();
-			ByteBuffer limitedBuffer = ByteBufferFactory.getInstance().limit(initialBuffer, null, maxInitialLineLength - initialBuffer.remainingData());
-			long read = content.read(limitedBuffer);
-			isClosed |= read == -1;
-			ReadableContainer<CharBuffer> data = new ReadableStraightByteToCharContainer(initialBuffer);
-			DelimitedCharContainer delimit = IOUtils.delimit(data, "\n");
-			request = IOUtils.toString(delimit);
-			if (!delimit.isDelimiterFound()) {
-				// if we have reached the maximum size for the request and not found one, throw an exception
-				if (request.length() >= maxInitialLineLength) {
-					report(EventSeverity.WARNING, "http-parse", "NO-FIRST-LINE", "Could not find initial line in first " + maxInitialLineLength + " bytes", null, "Received: " + request);
-					throw new HTTPException(414);
+			ByteBuffer limitedBuffer = ByteBufferFactory.getInstance().limit(initialBuffer, null, Math.max(0, maxInitialLineLength + maxHeaderSize - initialBuffer.remainingData()));
+			isClosed |= content.read(limitedBuffer) == -1;
+			
+			// we search the raw bytes for the end of the head and only parse it once it is complete
+			// this means partial heads (e.g. slow clients or large proxy-injected headers) are never decoded more than once
+			int available = (int) initialBuffer.remainingData();
+			if (headBytes == null) {
+				headBytes = HTTPBufferPool.getInstance().acquire(INITIAL_HEAD_SIZE);
+			}
+			if (headBytes.length < available) {
+				// we peek all the data again so no need to copy the current content
+				HTTPBufferPool.getInstance().release(headBytes);
+				int size = headBytes.length;
+				while (size < available) {
+					size *= 2;
 				}
-				request = null;
+				headBytes = HTTPBufferPool.getInstance().acquire(size);
 			}
-			else {
+			available = (int) initialBuffer.peek(IOUtils.wrap(headBytes, false));
+			int headLength = headScanner.scan(headBytes, available);
+			int lineEnd = headScanner.getLineEnd();
+			
+			// if we have reached the maximum size for the initial line and not found one, throw an exception
+			if ((lineEnd < 0 && available >= maxInitialLineLength) || lineEnd >= maxInitialLineLength) {
+				String received = new String(headBytes, 0, Math.min(lineEnd < 0 ? available : lineEnd, maxInitialLineLength), StandardCharsets.ISO_8859_1);
+				report(EventSeverity.WARNING, "http-parse", "NO-FIRST-LINE", "Could not find initial line in first " + maxInitialLineLength + " bytes", null, "Received: " + received);
+				throw new HTTPException(414);
+			}
+			// if we did not find the end of the headers in the allotted space, throw an exception
+			if (lineEnd >= 0 && ((headLength < 0 && available - lineEnd - 1 >= maxHeaderSize) || (headLength >= 0 && headLength - lineEnd - 1 > maxHeaderSize))) {
+				report(EventSeverity.WARNING, "http-parse", "LONG-HEADERS", "No headers found within the size limit of " + maxHeaderSize + " bytes", null, null);
+				throw new HTTPException(431, "No headers found within the size limit: " + maxHeaderSize + " bytes");
+			}
+			
+			if (headLength >= 0) {
 				// it really should end with a \r at this point
-				if (request.endsWith("\r")) {
-					request = request.substring(0, request.length() - 1);
-				}
-				if (request.contains("%00")) {
-					report(EventSeverity.WARNING, "http-parse", "NUL", "Request/response line contains encoded NUL character", null, "Received: " + request);
+				initialLineLength = lineEnd > 0 && headBytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+				// the initial line is parsed straight from the bytes, it is only turned into a string for reporting
+				if (HTTPLineParser.indexOf(headBytes, 0, initialLineLength, ENCODED_NUL) >= 0) {
+					report(EventSeverity.WARNING, "http-parse", "NUL", "Request/response line contains encoded NUL character", null, "Received: " + getInitialLine());
 					throw new ParseException("Request line contains encoded NUL character, this is not allowed", 0);
 				}
-				initialBuffer.remark();
 				if (isResponse) {
-					if (!request.startsWith("HTTP/")) {
-						report(EventSeverity.WARNING, "http-parse", "RESPONSE-LINE", "Could not parse response line: " + request, null, "Received: " + request);
-						throw new ParseException("Could not parse response line: " + request, 0);
-					}
-					int firstSpaceIndex = request.indexOf(' ');
-					int secondSpaceIndex = request.indexOf(' ', firstSpaceIndex + 1);
-					if (firstSpaceIndex < 0) {
-						report(EventSeverity.WARNING, "http-parse", "RESPONSE-LINE", "Could not parse response line: " + request, null, "Received: " + request);
-						throw new ParseException("Could not parse response line: " + request, 0);
+					int firstSpaceIndex = HTTPLineParser.indexOf(headBytes, 0, initialLineLength, (byte) ' ');
+					int secondSpaceIndex = firstSpaceIndex < 0 ? -1 : HTTPLineParser.indexOf(headBytes, firstSpaceIndex + 1, initialLineLength, (byte) ' ');
+					version = firstSpaceIndex < 0 ? -1 : HTTPLineParser.getVersion(headBytes, 0, firstSpaceIndex);
+					int parsedCode = firstSpaceIndex < 0 ? -1 : HTTPLineParser.getCode(headBytes, firstSpaceIndex + 1, (secondSpaceIndex < 0 ? initialLineLength : secondSpaceIndex) - firstSpaceIndex - 1);
+					if (version < 0 || parsedCode < 0) {
+						report(EventSeverity.WARNING, "http-parse", "RESPONSE-LINE", "Could not parse response line: " + getInitialLine(), null, "Received: " + getInitialLine());
+						throw new ParseException("Could not parse response line: " + getInitialLine(), 0);
 					}
-					version = new Double(request.substring(0, firstSpaceIndex).replaceFirst("HTTP/", "").trim());
-					code = new Integer(secondSpaceIndex < 0 ? request.substring(firstSpaceIndex + 1) : request.substring(firstSpaceIndex + 1, secondSpaceIndex));
+					code = parsedCode;
 					// according to the spec, the "reason phrase" is actually optional
 					if (secondSpaceIndex >= 0) {
-						message = request.substring(secondSpaceIndex + 1).trim();
+						message = HTTPLineParser.getText(headBytes, secondSpaceIndex + 1, initialLineLength - secondSpaceIndex - 1);
 					}
 					else {
 						message = HTTPCodes.getMessage(code);
 					}
 				}
 				else {
-					int firstSpaceIndex = request.indexOf(' ');
-					int httpIndex = request.lastIndexOf("HTTP/");
-					
-					if (firstSpaceIndex < 0 || httpIndex < 0) {
-						report(EventSeverity.WARNING, "http-parse", "REQUEST-LINE", "Could not parse request line: " + request, null, "Received: " + request);
-						throw new ParseException("Could not parse request line: " + request, 0);
+					int firstSpaceIndex = HTTPLineParser.indexOf(headBytes, 0, initialLineLength, (byte) ' ');
+					int httpIndex = HTTPLineParser.lastIndexOf(headBytes, 0, initialLineLength, HTTPLineParser.VERSION_PREFIX);
+					version = firstSpaceIndex < 0 || httpIndex <= firstSpaceIndex ? -1 : HTTPLineParser.getVersion(headBytes, httpIndex, initialLineLength - httpIndex);
+					if (version < 0) {
+						report(EventSeverity.WARNING, "http-parse", "REQUEST-LINE", "Could not parse request line: " + getInitialLine(), null, "Received: " + getInitialLine());
+						throw new ParseException("Could not parse request line: " + getInitialLine(), 0);
 					}
-					method = request.substring(0, firstSpaceIndex);
+					// known methods resolve to a shared constant
+					method = HTTPLineParser.getMethod(headBytes, 0, firstSpaceIndex);
 					// @2017-05-14: not a clue why the replace is there
 //					target = request.substring(firstSpaceIndex + 1, httpIndex).trim().replaceFirst("[/]{2,}", "/");
-					target = request.substring(firstSpaceIndex + 1, httpIndex).trim();
-					version = new Double(request.substring(httpIndex).replaceFirst("HTTP/", "").trim());
+					target = HTTPLineParser.getText(headBytes, firstSpaceIndex + 1, httpIndex - firstSpaceIndex - 1);
 				}
 				if (logger.isDebugEnabled()) {
-					logger.debug("[INBOUND] " + (isResponse ? "Response" : "Request") + " (" + hashCode() + ") first line: {}", request);
+					logger.debug("[INBOUND] " + (isResponse ? "Response" : "Request") + " (" + hashCode() + ") first line: {}", getInitialLine());
 				}
-			}
-		}
-		if (request != null && headers == null && !isDone()) {
-			// reset so we see all the data
-			initialBuffer.reset();
-			ByteBuffer limitedBuffer = ByteBufferFactory.getInstance().limit(initialBuffer, null, maxHeaderSize - initialBuffer.remainingData());
-			isClosed |= content.read(limitedBuffer) == -1;
-			
-			// it is possible to have a request without headers
-			long peek = initialBuffer.peek(IOUtils.wrap(pair, false));
-			if ((peek == 2 && pair[0] == '\r' && pair[1] == '\n') || (peek >= 1 && pair[0] == '\n')) {
-				if (allowWithoutHeaders(method)) {
-					isDone = true;
-					// skip past the linefeed
-					initialBuffer.skip(pair[0] == '\r' ? 2 : 1);
-					// push everything else back
-					content.pushback(initialBuffer);
-					// set an empty part nonetheless for additional metadata later on
-					part = new PlainMimeEmptyPart(null);
+				
+				// skip past the initial line
+				initialBuffer.reset();
+				initialBuffer.skip(lineEnd + 1);
+				
+				// it is possible to have a request without headers, the empty line then immediately follows the initial line
+				if (headLength - lineEnd <= 3) {
+					if (allowWithoutHeaders(method)) {
+						isDone = true;
+						// skip past the linefeed
+						initialBuffer.skip(headLength - lineEnd - 1);
+						// push everything else back
+						content.pushback(initialBuffer);
+						// set an empty part nonetheless for additional metadata later on
+						part = new PlainMimeEmptyPart(null);
+						// there is nothing to stream
+						streamingDone = true;
+						releaseHeadBytes();
+					}
+					else {
+						report(EventSeverity.WARNING, "http-parse", "NO-HEADERS", "No headers found for method: " + method, null, null);
+						throw new ParseException("No headers found for the method '" + method + "'", 3);
+					}
 				}
 				else {
-					report(EventSeverity.WARNING, "http-parse", "NO-HEADERS", "No headers found for method: " + method, null, null);
-					throw new ParseException("No headers found for the method '" + method + "'", 3);
-				}
-			}
-			else {
-				ReadableContainer<CharBuffer> data = new ReadableStraightByteToCharContainer(initialBuffer);
-				try {
-					headers = MimeUtils.readHeaders(data, true);
-				}
-				catch (ParseException e) {
-					// it is possible that we received partial headers because they were cut in two by the transport layer
-					// this problem occurred at 2017-09-25 where the proxy injected many "new" headers which presumably went over the packet size of the transport layer
-					// partial headers bumped into a parse exception for MimeHeader.parseHeader()
-					// this bubbled up, causing the message framer to close the connection and a retry on the proxy side
-					// we set the error offset to 1 for that particular error to be able to recognize it
-					// other parse exceptions should bubble up
-					if (e.getErrorOffset() != 1) {
+					// we know the head is complete so partial headers (that were cut in two by the transport layer) can no longer occur, any parse exception is a real one
+					// the headers are only indexed, the actual mime headers are materialized when someone asks for them
+					try {
+						headIndex = HTTPHeadIndex.parse(headBytes, lineEnd + 1, headLength - lineEnd - 1);
+					}
+					catch (ParseException e) {
 						report(EventSeverity.WARNING, "http-parse", "INCORRECT-HEADERS", "Could not parse the headers", e, null);
 						throw e;
 					}
-				}
-				// if we did not find the headers in the allotted space, throw an exception
-				if (headers == null && limitedBuffer.remainingSpace() == 0) {
-					report(EventSeverity.WARNING, "http-parse", "LONG-HEADERS", "No headers found within the size limit of " + maxHeaderSize + " bytes", null, null);
-					throw new HTTPException(431, "No headers found within the size limit: " + maxHeaderSize + " bytes");
-				}
-				else if (headers != null) {
+					headers = headIndex.getHeaders();
+					// the index has its own copy, we no longer need the head bytes
+					releaseHeadBytes();
+					// position the buffer right after the head, the rest is content
+					initialBuffer.reset();
+					initialBuffer.skip(headLength);
 					initialBuffer.unmark();
 					if (logger.isDebugEnabled()) {
 						logger.debug("[INBOUND] " + (isResponse ? "Response" : "Request") + " (" + hashCode() + ") headers: {}", Arrays.asList(headers));
@@ -297,20 +315,25 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 				}
 			}
 		}
+		// now that we know the head, we can decide whether or not to stream the content of this message
+		if (streamingDecider != null && !streamingDecided && (headers != null || isDone())) {
+			streamingMode = streamingDecider.isStreaming(method, target, headers == null ? new Header[0] : headers);
+			streamingDecided = true;
+		}
 		if (!streamingMode) {
 			parse: if (headers != null && !isDone()) {
 				if (resource == null) {
-					contentLength = MimeUtils.getContentLength(headers);
+					contentLength = getContentLength();
 					if (contentLength == null) {
-						String transferEncoding = MimeUtils.getTransferEncoding(headers);
-						Header connection = MimeUtils.getHeader("Connection", headers);
+						String transferEncoding = headIndex.getValue(HTTPHeadIndex.TRANSFER_ENCODING);
+						String connection = headIndex.getValue(HTTPHeadIndex.CONNECTION);
 						
-						if ("chunked".equals(transferEncoding)) {
+						if ("chunked".equalsIgnoreCase(transferEncoding)) {
 							chunked = new ChunkedReadableByteContainer(initialBuffer);
 							chunked.setMaxChunkSize(maxChunkSize);
 						}
 						// if we allow no message size for closed connections, we need to double check that the connection will be closed
-						else if (allowNoMessageSizeForClosedConnections && connection != null && connection.getValue() != null && connection.getValue().equalsIgnoreCase("close")) {
+						else if (allowNoMessageSizeForClosedConnections && connection != null && connection.equalsIgnoreCase("close")) {
 							isUnlimitedResponse = true;
 						}
 						// if no content length or encoding, we don't have an (allowed) content, check if this is ok for the method
@@ -334,18 +357,15 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 					}
 					resource = getDataProvider().newResource(method, target, version, headers);
 					if (resource == null) {
-						report(EventSeverity.WARNING, "http-parse", "NO-DATA-PROVIDER", "No data provider available for: " + request + ", headers: " + Arrays.asList(headers), null, null);
-						throw new ParseException("No data provider available for '" + request + "', headers: " + Arrays.asList(headers), 2);
+						report(EventSeverity.WARNING, "http-parse", "NO-DATA-PROVIDER", "No data provider available for: " + getInitialLine() + ", headers: " + Arrays.asList(headers), null, null);
+						throw new ParseException("No data provider available for '" + getInitialLine() + "', headers: " + Arrays.asList(headers), 2);
 					}
 				}
 				if (writable == null) {
 					writable = ((WritableResource) resource).getWritable();
+					// we write the headers as they were received, this way they never need to be materialized
 					if (includeHeaders) {
-						for (Header header : headers) {
-							writable.write(IOUtils.wrap(header.toString().getBytes("ASCII"), true));
-							writable.write(IOUtils.wrap("\r\n".getBytes("ASCII"), true));
-						}
-						writable.write(IOUtils.wrap("\r\n".getBytes("ASCII"), true));
+						writable.write(IOUtils.wrap(headIndex.getBytes(), true));
 					}
 					if (chunked != null) {
 						writable = new ChunkedWritableByteContainer(writable, false);
@@ -363,7 +383,7 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 				while (!isDone() && (initialBuffer.remainingData() > 0 || (read = content.read(ByteBufferFactory.getInstance().limit(initialBuffer, null, Math.min(COPY_SIZE, contentLength == null && (chunked != null || isUnlimitedResponse) ? Long.MAX_VALUE : contentLength - totalRead)))) > 0)) {
 					totalRead += initialBuffer.remainingData();
 					if (chunked != null) {
-						long chunkRead = IOUtils.copy(chunked, writable, copyBuffer);
+						long chunkRead = IOUtils.copy(chunked, writable, getCopyBuffer());
 						// if the chunk is done, stop
 						if (chunked.isFinished()) {
 							if (chunkRead > 0) {
@@ -381,6 +401,7 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 							writable.close();
 							// whether or not we send the headers along to the parser depends on whether or not they are stored in the resource already
 							part = includeHeaders ? new MimeParser().parse((ReadableResource) resource) : new MimeParser().parse((ReadableResource) resource, headers);
+							MessageResources.attach(part, resource);
 							isDone = true;
 							// the resource "should" be backed and re-readable, we are not in streaming mode
 							if (part instanceof ModifiableContentPart) {
@@ -404,6 +425,7 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 							writable.close();
 							// whether or not we send the headers along to the parser depends on whether or not they are stored in the resource already
 							part = includeHeaders ? new MimeParser().parse((ReadableResource) resource) : new MimeParser().parse((ReadableResource) resource, headers);
+							MessageResources.attach(part, resource);
 							isDone = true;
 							// the resource "should" be backed and re-readable, we are not in streaming mode
 							if (part instanceof ModifiableContentPart) {
@@ -420,21 +442,13 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 				if (read == -1) {
 					isClosed = true;
 				}
+				if (isDone()) {
+					releaseCopyBuffer();
+				}
 			}
 			
-			// always remove these headers, they should not be coming from the client, not even in a proxy situation
-			if (part != null) {
-				part.removeHeader(ServerHeader.RESOURCE_URI.getName());
-				part.removeHeader(ServerHeader.REQUEST_RECEIVED.getName());
-			}
-			
-			if (part != null && resource instanceof LocatableResource) {
-				HTTPUtils.setHeader(part, ServerHeader.RESOURCE_URI, ((LocatableResource) resource).getUri().toString());
-			}
-			
-			// set the timestamp that it was received
 			if (part != null) {
-				part.setHeader(new MimeHeader(ServerHeader.REQUEST_RECEIVED.getName(), HTTPUtils.formatDate(new Date())));
+				setServerHeaders(part);
 			}
 			
 			// it is possible that the message provider did something to the resource it managed that altered the part that came back from the parsing
@@ -446,9 +460,9 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 		}
 		else {
 			parse: if (headers != null && !isDone) {
-				contentLength = MimeUtils.getContentLength(headers);
+				contentLength = getContentLength();
 				if (contentLength == null) {
-					String transferEncoding = MimeUtils.getTransferEncoding(headers);
+					String transferEncoding = headIndex.getValue(HTTPHeadIndex.TRANSFER_ENCODING);
 					// if no content length or encoding, we don't have an (allowed) content, check if this is ok for the method
 					if (transferEncoding == null && allowWithoutContent(method)) {
 						isDone = true;
@@ -457,7 +471,7 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 						streamingDone = true;
 						break parse;
 					}
-					else if (!"chunked".equals(transferEncoding)) {
+					else if (!"chunked".equalsIgnoreCase(transferEncoding)) {
 						report(EventSeverity.WARNING, "http-parse", "NO-CONTENT-LENGTH", "No content-length provided and not using chunked", null, null);
 						// throw the exception code for length required
 						throw new HTTPException(411, "No content-length provided and not using chunked");
@@ -497,9 +511,25 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 //				writable = transcoder.decodeContent(MimeUtils.getTransferEncoding(headers), writable);
 				writable = new SynchronizedWritableContainer<ByteBuffer>(writable, lock);
 
+				final StreamedBody body = new StreamedBody(streamingBuffer);
+				streamedBody = body;
+				
 				ReadableContainer<ByteBuffer> readable = streamingBuffer;
 				readable = transcoder.decodeContent(contentEncoding, readable);
 				readable = new SynchronizedReadableContainer<ByteBuffer>(readable, lock);
+				// keep track of the handler closing the body, it may not read it to the end
+				final ReadableContainer<ByteBuffer> parentReadable = readable;
+				readable = new ReadableContainer<ByteBuffer>() {
+					@Override
+					public long read(ByteBuffer target) throws IOException {
+						return parentReadable.read(target);
+					}
+					@Override
+					public void close() throws IOException {
+						body.closed = true;
+						parentReadable.close();
+					}
+				};
 				
 				// we wrap events around them
 				EventfulContainerImpl<ByteBuffer> eventfulContainer = new EventfulContainerImpl<ByteBuffer>(IOUtils.wrap(readable, writable));
@@ -516,7 +546,8 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 //							pipeline.read();
 //						}
 						// if the streaming is not done and we have some room left, we want more information
-						if (streamingBuffer.remainingSpace() > COPY_SIZE * 5 && !streamingDone) {
+						// the parser may have moved on to the next message, so we only look at the state of our own body
+						if (!body.done && body.buffer.remainingSpace() > COPY_SIZE * 5) {
 							if (pipeline instanceof MessagePipelineImpl) {
 								((MessagePipelineImpl<?, ?>) pipeline).registerReadInterest();
 							}
@@ -535,6 +566,11 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 					}
 				}
 			}
+			// a streamed request gets the same server headers as a buffered one, this is done once when the part is created
+			if (!isResponse && part != null && !serverHeadersSet) {
+				setServerHeaders(part);
+				serverHeadersSet = true;
+			}
 			// if we are done but the streaming isn't, we need to copy more data into the streamingbuffer (if we can)
 			if (isDone && !streamingDone) {
 				long read = 0;
@@ -544,7 +580,7 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 					totalRead += initialBuffer.remainingData();
 
 					if (chunked != null) {
-						long chunkRead = IOUtils.copy(chunked, writable, copyBuffer);
+						long chunkRead = IOUtils.copy(chunked, writable, getCopyBuffer());
 						// if the chunk is done, stop
 						if (chunked.isFinished()) {
 							if (chunkRead > 0) {
@@ -570,7 +606,7 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 	//							((ChunkedWritableByteContainer) chunkedWritable).finish(additionalHeaders);
 //								writable.close();
 								streamingBuffer.close();
-								streamingDone = true;
+								finishStreaming();
 							}
 						}
 						else {
@@ -586,7 +622,7 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 								logger.debug("[INBOUND] " + (isResponse ? "Response" : "Request") + " (" + hashCode() + ") finished reading {} bytes", totalRead - initialBuffer.remainingData());
 							}
 							writable.close();
-							streamingDone = true;
+							finishStreaming();
 						}
 					}
 					// don't take anything into account that is not processed
@@ -599,12 +635,45 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 				// if we got to the end, signal the closure and the streaming that is done
 				if (read <= -1) {
 					isClosed = true;
-					streamingDone = true;
+					finishStreaming();
+				}
+				if (streamingDone) {
+					releaseCopyBuffer();
 				}
 			}
 		}
 	}
 	
+	private void finishStreaming() {
+		streamingDone = true;
+		if (streamedBody != null) {
+			streamedBody.done = true;
+		}
+	}
+	
+	private void setServerHeaders(ModifiablePart part) {
+		// always remove these headers, they should not be coming from the client, not even in a proxy situation
+		part.removeHeader(ServerHeader.RESOURCE_URI.getName());
+		part.removeHeader(ServerHeader.REQUEST_RECEIVED.getName());
+		
+		if (resource instanceof LocatableResource) {
+			HTTPUtils.setHeader(part, ServerHeader.RESOURCE_URI, ((LocatableResource) resource).getUri().toString());
+		}
+		
+		// set the timestamp that it was received
+		part.setHeader(new MimeHeader(ServerHeader.REQUEST_RECEIVED.getName(), HTTPDateClock.getDate()));
+	}
+	
+	private Long getContentLength() throws ParseException {
+		try {
+			return headIndex.getContentLength();
+		}
+		catch (ParseException e) {
+			report(EventSeverity.WARNING, "http-parse", "INCORRECT-HEADERS", "Invalid content length", e, null);
+			throw e;
+		}
+	}
+	
 	private boolean allowWithoutContent(String method) {
 		if (allowNoContent) {
 			return true;
@@ -643,12 +712,106 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 
 	@Override
 	public void close() throws IOException {
-		writable.close();
-		if (resource instanceof Closeable) {
-			((Closeable) resource).close();
+		releaseHeadBytes();
+		releaseCopyBuffer();
+		if (writable != null) {
+			writable.close();
+		}
+		// the connection is gone, so is the exchange, unless a handler took over the body of the message
+		if (resource != null && (part == null || !isDone)) {
+			MessageResources.release(resource);
+		}
+		else if (part != null) {
+			MessageResources.finish(part);
+		}
+	}
+	
+	/**
+	 * Resets the parser so it can be reused for the next message on the same connection.
+	 * The message that was parsed before is not affected, it does not share any state with the parser.
+	 */
+	public void reset() {
+		releaseHeadBytes();
+		releaseCopyBuffer();
+		// drop the mark so we don't hold on to data we have already processed, anything that was not consumed yet belongs to the next message
+		initialBuffer.unmark();
+		initialBuffer.mark();
+		// once the message is parsed, its resource is released with the exchange, if we never got that far it is of no use to anyone
+		if (resource != null && (part == null || !isDone)) {
+			MessageResources.release(resource);
+		}
+		headScanner.reset();
+		initialLineLength = -1;
+		headers = null;
+		headIndex = null;
+		resource = null;
+		writable = null;
+		chunkedWritable = null;
+		chunked = null;
+		part = null;
+		// the body of the previous message no longer pulls data from the connection
+		if (streamedBody != null) {
+			streamedBody.done = true;
+		}
+		streamedBody = null;
+		streamingBuffer = null;
+		streamingDone = false;
+		streamingMode = defaultStreamingMode;
+		streamingDecided = false;
+		serverHeadersSet = false;
+		totalRead = 0;
+		totalChunkRead = 0;
+		contentLength = null;
+		method = null;
+		target = null;
+		code = null;
+		message = null;
+		version = 0;
+		isClosed = false;
+		isDone = false;
+		isUnlimitedResponse = false;
+	}
+	
+	private ByteBuffer getCopyBuffer() {
+		if (copyBuffer == null) {
+			copyBuffer = HTTPBufferPool.getInstance().acquireCopyBuffer();
+		}
+		return copyBuffer;
+	}
+	
+	private void releaseCopyBuffer() {
+		if (copyBuffer != null) {
+			HTTPBufferPool.getInstance().releaseCopyBuffer(copyBuffer);
+			copyBuffer = null;
+		}
+	}
+	
+	private void releaseHeadBytes() {
+		if (headBytes != null) {
+			HTTPBufferPool.getInstance().release(headBytes);
+			headBytes = null;
 		}
 	}
 
+	/**
+	 * The initial line is not kept as a string, it is only built on demand (e.g. for reporting)
+	 * Once the head is parsed, the original bytes are no longer available and the line is rebuilt from the parsed values
+	 */
+	public String getInitialLine() {
+		if (initialLineLength < 0) {
+			return null;
+		}
+		else if (headBytes != null) {
+			return new String(headBytes, 0, initialLineLength, StandardCharsets.ISO_8859_1);
+		}
+		else if (isResponse) {
+			return "HTTP/" + version + " " + code + " " + message;
+		}
+		else {
+			return method + " " + target + " HTTP/" + version;
+		}
+	}
+	
 	public String getMethod() {
 		return method;
 	}
@@ -684,6 +847,18 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 	public Header[] getOriginalHeaders() {
 		return headers;
 	}
+	
+	public HTTPHeadIndex getHeadIndex() {
+		return headIndex;
+	}
+	
+	public HTTPStreamingDecider getStreamingDecider() {
+		return streamingDecider;
+	}
+
+	public void setStreamingDecider(HTTPStreamingDecider streamingDecider) {
+		this.streamingDecider = streamingDecider;
+	}
 
 	public int getMaxInitialLineLength() {
 		return maxInitialLineLength;
@@ -722,6 +897,14 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 	public boolean isStreaming() {
 		return streamingMode;
 	}
+	
+	/**
+	 * Whether the handler is done with the streamed body, either because it has read all of it or because it closed it
+	 */
+	public boolean isDrained() {
+		StreamedBody body = streamedBody;
+		return body == null || body.closed || (body.done && body.buffer.remainingData() == 0);
+	}
 
 	@Override
 	public boolean shouldStopReading() {
@@ -729,4 +912,13 @@ public class HTTPMessageParser implements StreamingMessageParser<ModifiablePart>
 		return code != null && code == 101 && (!streamingMode || streamingDone);
 	}
 	
+	
+	private static class StreamedBody {
+		private final ByteBuffer buffer;
+		private volatile boolean done, closed;
+		
+		private StreamedBody(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
 }
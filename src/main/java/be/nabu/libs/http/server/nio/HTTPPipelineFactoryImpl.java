@@ -19,6 +19,10 @@ package be.nabu.libs.http.server.nio;
 
 import java.io.IOException;
 import java.nio.channels.SelectionKey;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import be.nabu.libs.http.api.HTTPRequest;
 import be.nabu.libs.http.api.HTTPResponse;
@@ -32,6 +36,7 @@ import be.nabu.libs.nio.api.MessageFormatterFactory;
 import be.nabu.libs.nio.api.NIOServer;
 import be.nabu.libs.nio.api.Pipeline;
 import be.nabu.libs.nio.impl.MessagePipelineImpl;
+import be.nabu.utils.mime.api.Header;
 
 public class HTTPPipelineFactoryImpl implements HTTPPipelineFactory {
 
@@ -42,6 +47,24 @@ public class HTTPPipelineFactoryImpl implements HTTPPipelineFactory {
 	private Integer maxInitialLineLength;
 	private Integer maxHeaderSize;
 	private Integer maxChunkSize;
+	// the request bodies of these routes (regexes on the path) are streamed to the handler as they arrive instead of being buffered first
+	private volatile Map<String, Pattern> streamingRoutes = new HashMap<String, Pattern>();
+	private HTTPStreamingDecider streamingDecider = new HTTPStreamingDecider() {
+		@Override
+		public boolean isStreaming(String method, String target, Header... headers) {
+			Map<String, Pattern> streamingRoutes = HTTPPipelineFactoryImpl.this.streamingRoutes;
+			if (streamingRoutes.isEmpty() || target == null) {
+				return false;
+			}
+			String path = getPath(target);
+			for (Pattern pattern : streamingRoutes.values()) {
+				if (pattern.matcher(path).matches()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	};
 
 	public HTTPPipelineFactoryImpl(HTTPProcessorFactory processorFactory, MessageDataProvider messageDataProvider) {
 		this.processorFactory = processorFactory;
@@ -54,6 +77,7 @@ public class HTTPPipelineFactoryImpl implements HTTPPipelineFactory {
 		requestParserFactory.setMaxChunkSize(maxChunkSize);
 		requestParserFactory.setMaxHeaderSize(maxHeaderSize);
 		requestParserFactory.setMaxInitialLineLength(maxInitialLineLength);
+		requestParserFactory.setStreamingDecider(streamingDecider);
 		MessagePipelineImpl<HTTPRequest, HTTPResponse> pipeline = new MessagePipelineImpl<HTTPRequest, HTTPResponse>(
 			server,
 			key,
@@ -80,6 +104,43 @@ public class HTTPPipelineFactoryImpl implements HTTPPipelineFactory {
 		return pipeline;
 	}
 
+	// strip the scheme and host of absolute targets and the query and fragment of all targets
+	private static String getPath(String target) {
+		int start = 0;
+		int schemeIndex = target.indexOf("://");
+		if (schemeIndex > 0 && !target.startsWith("/")) {
+			start = target.indexOf('/', schemeIndex + 3);
+			if (start < 0) {
+				return "/";
+			}
+		}
+		int end = target.length();
+		for (int i = start; i < end; i++) {
+			char character = target.charAt(i);
+			if (character == '?' || character == '#') {
+				end = i;
+				break;
+			}
+		}
+		return start == 0 && end == target.length() ? target : target.substring(start, end);
+	}
+	
+	public synchronized void addStreamingRoute(String pathRegex) {
+		Map<String, Pattern> streamingRoutes = new HashMap<String, Pattern>(this.streamingRoutes);
+		streamingRoutes.put(pathRegex, Pattern.compile(pathRegex));
+		this.streamingRoutes = streamingRoutes;
+	}
+	
+	public synchronized void removeStreamingRoute(String pathRegex) {
+		Map<String, Pattern> streamingRoutes = new HashMap<String, Pattern>(this.streamingRoutes);
+		streamingRoutes.remove(pathRegex);
+		this.streamingRoutes = streamingRoutes;
+	}
+	
+	public Set<String> getStreamingRoutes() {
+		return streamingRoutes.keySet();
+	}
+	
 	public HTTPProcessorFactory getProcessorFactory() {
 		return processorFactory;
 	}
@@ -24,11 +24,11 @@ import be.nabu.libs.events.api.EventTarget;
 import be.nabu.libs.http.api.HTTPRequest;
 import be.nabu.libs.http.api.server.MessageDataProvider;
 import be.nabu.libs.http.core.DefaultHTTPRequest;
-import be.nabu.libs.nio.api.MessageParser;
+import be.nabu.libs.nio.api.StreamingMessageParser;
 import be.nabu.utils.io.api.ByteBuffer;
 import be.nabu.utils.io.api.PushbackContainer;
 
-public class HTTPRequestParser implements MessageParser<HTTPRequest> {
+public class HTTPRequestParser implements StreamingMessageParser<HTTPRequest> {
 
 	private HTTPMessageParser messageFramer;
 	
@@ -73,4 +73,30 @@ public class HTTPRequestParser implements MessageParser<HTTPRequest> {
 	protected HTTPMessageParser getMessageFramer() {
 		return messageFramer;
 	}
+	
+	/**
+	 * A parser can be reused once it is done with its message, the handler is done with a streamed body and the connection is still open
+	 */
+	public boolean isReusable() {
+		return messageFramer.isDone() && messageFramer.isStreamed() && messageFramer.isDrained() && !messageFramer.isClosed();
+	}
+	
+	public void reset() {
+		messageFramer.reset();
+	}
+
+	@Override
+	public boolean isStreamed() {
+		return messageFramer.isStreamed();
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return messageFramer.isStreaming();
+	}
+
+	@Override
+	public boolean shouldStopReading() {
+		return messageFramer.shouldStopReading();
+	}
 }
\ No newline at end of file
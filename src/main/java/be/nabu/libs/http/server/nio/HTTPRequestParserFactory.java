@@ -30,6 +30,9 @@ public class HTTPRequestParserFactory implements MessageParserFactory<HTTPReques
 	private Integer maxHeaderSize;
 	private Integer maxChunkSize;
 	private EventTarget target;
+	private boolean reuseParser = Boolean.parseBoolean(System.getProperty("http.reuseParser", "true"));
+	private HTTPRequestParser parser;
+	private HTTPStreamingDecider streamingDecider;
 
 	public HTTPRequestParserFactory(MessageDataProvider provider, EventTarget target) {
 		this.provider = provider;
@@ -38,6 +41,11 @@ public class HTTPRequestParserFactory implements MessageParserFactory<HTTPReques
 	
 	@Override
 	public MessageParser<HTTPRequest> newMessageParser() {
+		// a factory is created per pipeline, so on a keep-alive connection we can reuse the parser (and its buffers) of the previous request
+		if (reuseParser && parser != null && parser.isReusable()) {
+			parser.reset();
+			return parser;
+		}
 		HTTPRequestParser parser = new HTTPRequestParser(provider, target);
 		if (maxInitialLineLength != null) {
 			parser.getMessageFramer().setMaxInitialLineLength(maxInitialLineLength);
@@ -48,6 +56,10 @@ public class HTTPRequestParserFactory implements MessageParserFactory<HTTPReques
 		if (maxChunkSize != null) {
 			parser.getMessageFramer().setMaxChunkSize(maxChunkSize);
 		}
+		parser.getMessageFramer().setStreamingDecider(streamingDecider);
+		if (reuseParser) {
+			this.parser = parser;
+		}
 		return parser;
 	}
 
@@ -75,4 +87,20 @@ public class HTTPRequestParserFactory implements MessageParserFactory<HTTPReques
 		this.maxChunkSize = maxChunkSize;
 	}
 
+	public boolean isReuseParser() {
+		return reuseParser;
+	}
+
+	public void setReuseParser(boolean reuseParser) {
+		this.reuseParser = reuseParser;
+	}
+
+	public HTTPStreamingDecider getStreamingDecider() {
+		return streamingDecider;
+	}
+
+	public void setStreamingDecider(HTTPStreamingDecider streamingDecider) {
+		this.streamingDecider = streamingDecider;
+	}
+
 }
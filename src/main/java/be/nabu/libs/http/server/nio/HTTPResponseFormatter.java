@@ -18,7 +18,6 @@
 package be.nabu.libs.http.server.nio;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
 import java.util.Arrays;
 
 import org.slf4j.Logger;
@@ -36,16 +35,19 @@ import be.nabu.utils.io.api.EventfulSubscription;
 import be.nabu.utils.io.api.ReadableContainer;
 import be.nabu.utils.io.containers.ReadableContainerChainer;
 import be.nabu.utils.mime.impl.HeaderEncoding;
+import be.nabu.utils.mime.impl.MimeUtils;
 import be.nabu.utils.mime.impl.PullableMimeFormatter;
 
 public class HTTPResponseFormatter implements MessageFormatter<HTTPResponse> {
 	
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	public static boolean STREAMING_MODE = Boolean.parseBoolean(System.getProperty("http.streamingMode", "true"));
+	// responses with a content length up to this size are written in full into a single buffer so they reach the socket in one go
+	public static long GATHER_SIZE = Long.parseLong(System.getProperty("http.gatherSize", "4096"));
 	
 	@SuppressWarnings({ "unchecked", "resource" })
 	@Override
-	public ReadableContainer<ByteBuffer> format(HTTPResponse message) {
+	public ReadableContainer<ByteBuffer> format(final HTTPResponse message) {
 		if (logger.isDebugEnabled()) {
 			HTTPRequest request = null;
 			if (message instanceof LinkableHTTPResponse) {
@@ -61,11 +63,12 @@ public class HTTPResponseFormatter implements MessageFormatter<HTTPResponse> {
 				logger.debug("[OUTBOUND] Response (" + hashCode() + ") headers: " + Arrays.asList(message.getContent().getHeaders()));
 			}
 		}
-		byte [] firstLine = ("HTTP/" + message.getVersion() + " " + message.getCode() + " " + message.getMessage() + "\r\n").getBytes(Charset.forName("ASCII"));
+		byte [] firstLine = HTTPStatusLine.getBytes(message.getVersion(), message.getCode(), message.getMessage());
 
 		// no content, just write the ending
 		if (message.getContent() == null) {
-			return IOUtils.chain(true, IOUtils.wrap(firstLine, true), IOUtils.wrap("\r\n".getBytes(Charset.forName("ASCII")), true));
+			finish(message);
+			return PooledReadableContainer.wrap(HTTPBufferPool.getInstance(), firstLine, HTTPStatusLine.CRLF);
 		}
 		
 		PullableMimeFormatter formatter = STREAMING_MODE ? new StreamableMimeFormatter() : new PullableMimeFormatter();
@@ -88,7 +91,42 @@ public class HTTPResponseFormatter implements MessageFormatter<HTTPResponse> {
 			}
 			throw new RuntimeException(e);
 		}
-		ReadableContainerChainer<ByteBuffer> chained = new ReadableContainerChainer<ByteBuffer>(true, IOUtils.wrap(firstLine, true), formatter);
+		ReadableContainer<ByteBuffer> head = null;
+		Long contentLength = MimeUtils.getContentLength(message.getContent().getHeaders());
+		if (contentLength != null && contentLength <= GATHER_SIZE) {
+			BufferPool pool = HTTPBufferPool.getInstance();
+			ByteBuffer buffer = pool.acquireCopyBuffer();
+			try {
+				if (buffer.write(IOUtils.wrap(firstLine, true)) == firstLine.length) {
+					long read = 0;
+					while (buffer.remainingSpace() > 0 && (read = formatter.read(buffer)) > 0);
+					head = new PooledReadableContainer(pool, buffer);
+					// the whole response is in the buffer
+					if (read < 0) {
+						formatter.close();
+						finish(message);
+						return head;
+					}
+				}
+				else {
+					pool.releaseCopyBuffer(buffer);
+				}
+			}
+			catch (IOException e) {
+				pool.releaseCopyBuffer(buffer);
+				try {
+					formatter.close();
+				}
+				catch (IOException e1) {
+					logger.error("Could not close formatter", e1);
+				}
+				throw new RuntimeException(e);
+			}
+		}
+		if (head == null) {
+			head = PooledReadableContainer.wrap(HTTPBufferPool.getInstance(), firstLine);
+		}
+		ReadableContainerChainer<ByteBuffer> chained = new ReadableContainerChainer<ByteBuffer>(true, head, formatter);
 		if (STREAMING_MODE) {
 				chained.setAllowEmptyReads(STREAMING_MODE);
 				return new EventfulReadableContainer<ByteBuffer>() {
@@ -98,7 +136,12 @@ public class HTTPResponseFormatter implements MessageFormatter<HTTPResponse> {
 					}
 					@Override
 					public void close() throws IOException {
-						chained.close();
+						try {
+							chained.close();
+						}
+						finally {
+							finish(message);
+						}
 					}
 					@Override
 					public EventfulSubscription availableData(EventfulSubscriber subscriber) {
@@ -107,8 +150,32 @@ public class HTTPResponseFormatter implements MessageFormatter<HTTPResponse> {
 				};
 		}
 		else {
-			return chained;
+			return new ReadableContainer<ByteBuffer>() {
+				@Override
+				public long read(ByteBuffer buffer) throws IOException {
+					return chained.read(buffer);
+				}
+				@Override
+				public void close() throws IOException {
+					try {
+						chained.close();
+					}
+					finally {
+						finish(message);
+					}
+				}
+			};
 		}
 //		return IOUtils.chain(true, IOUtils.wrap(firstLine, true), formatter);
 	}
+	
+	// once the response is sent, the exchange is over and the body of the request is released, a handler that keeps using the body after it responds (e.g. with a 202) has to take it over with MessageResources.retain()
+	private static void finish(HTTPResponse message) {
+		if (message instanceof LinkableHTTPResponse) {
+			HTTPRequest request = ((LinkableHTTPResponse) message).getRequest();
+			if (request != null) {
+				MessageResources.finish(request.getContent());
+			}
+		}
+	}
 }
@@ -0,0 +1,67 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import java.nio.charset.StandardCharsets;
+
+import be.nabu.libs.http.HTTPCodes;
+
+/**
+ * The encoded status lines for the standard codes and messages are computed once, anything else is encoded on the fly.
+ */
+public class HTTPStatusLine {
+
+	public static final byte [] CRLF = new byte [] { '\r', '\n' };
+	
+	private static final int MIN_CODE = 100, MAX_CODE = 599;
+	private static final double [] VERSIONS = new double [] { 1.0, 1.1 };
+	
+	private static final String [] MESSAGES = new String[MAX_CODE - MIN_CODE + 1];
+	private static final byte [][][] LINES = new byte[VERSIONS.length][MAX_CODE - MIN_CODE + 1][];
+	
+	static {
+		for (int code = MIN_CODE; code <= MAX_CODE; code++) {
+			String message = HTTPCodes.getMessage(code);
+			if (message != null) {
+				MESSAGES[code - MIN_CODE] = message;
+				for (int i = 0; i < VERSIONS.length; i++) {
+					LINES[i][code - MIN_CODE] = encode(VERSIONS[i], code, message);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The status line including the trailing CRLF, the returned array may be shared and must not be modified
+	 */
+	public static byte [] getBytes(double version, int code, String message) {
+		if (code >= MIN_CODE && code <= MAX_CODE && message != null && message.equals(MESSAGES[code - MIN_CODE])) {
+			for (int i = 0; i < VERSIONS.length; i++) {
+				if (VERSIONS[i] == version) {
+					return LINES[i][code - MIN_CODE];
+				}
+			}
+		}
+		return encode(version, code, message);
+	}
+	
+	private static byte [] encode(double version, int code, String message) {
+		return ("HTTP/" + version + " " + code + " " + message + "\r\n").getBytes(StandardCharsets.US_ASCII);
+	}
+}
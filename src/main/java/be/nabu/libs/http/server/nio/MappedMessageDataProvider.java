@@ -0,0 +1,137 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import be.nabu.libs.http.api.server.MessageDataProvider;
+import be.nabu.libs.resources.api.ReadableResource;
+import be.nabu.libs.resources.api.WritableResource;
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.impl.MimeUtils;
+
+/**
+ * Writes very large bodies straight into a memory mapped temporary file that is sized according to the content length.
+ * For chunked bodies we don't know the length up front, they are kept in memory until they reach the minimum size and are spilled to a temporary file after that.
+ * The mapped file is not charged against the {@link BodyBudget}, its pages are managed by the operating system, only chunked bodies that are still in memory are.
+ * Bodies with a content length smaller than the minimum size are not handled by this provider (it returns null), combine it with another provider in a {@link MultipleMessageDataProvider}.
+ */
+public class MappedMessageDataProvider implements MessageDataProvider {
+
+	private File directory;
+	private long minSize, segmentSize;
+	// chunked bodies only go to disk once they are larger than the minimum size
+	private SpillingMessageDataProvider chunkedProvider;
+	
+	private ReferenceQueue<MappedResource> collected = new ReferenceQueue<MappedResource>();
+	private Set<ResourceReference> references = Collections.newSetFromMap(new ConcurrentHashMap<ResourceReference, Boolean>());
+	
+	public MappedMessageDataProvider(File directory, long minSize, long segmentSize) {
+		this.directory = directory;
+		this.minSize = minSize;
+		this.segmentSize = segmentSize;
+		this.chunkedProvider = new SpillingMessageDataProvider(minSize, 0, directory);
+	}
+	
+	public MappedMessageDataProvider(File directory) {
+		this(
+			directory,
+			Long.parseLong(System.getProperty("http.mapped.minSize", "" + (64 * 1024 * 1024))),
+			// a single mapping can not exceed 2GB, larger files are mapped in segments
+			Long.parseLong(System.getProperty("http.mapped.segmentSize", "" + (256 * 1024 * 1024)))
+		);
+	}
+	
+	public MappedMessageDataProvider() {
+		this(System.getProperty("http.mapped.directory") == null ? null : new File(System.getProperty("http.mapped.directory")));
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends WritableResource & ReadableResource> T newResource(String method, String target, double version, Header...headers) throws IOException {
+		cleanup();
+		if (headers == null) {
+			return null;
+		}
+		Long contentLength = MimeUtils.getContentLength(headers);
+		if (contentLength == null) {
+			Header transferEncoding = MimeUtils.getHeader("Transfer-Encoding", headers);
+			if (transferEncoding == null || !"chunked".equalsIgnoreCase(transferEncoding.getValue())) {
+				return null;
+			}
+			return chunkedProvider.newResource(method, target, version, headers);
+		}
+		else if (contentLength < minSize) {
+			return null;
+		}
+		// the mapped pages live in the page cache rather than on the heap, so they are not charged against the body budget
+		MappedResource resource = new MappedResource(File.createTempFile("http-", ".body", directory), contentLength, segmentSize);
+		references.add(new ResourceReference(resource, collected));
+		return (T) resource;
+	}
+	
+	private void cleanup() {
+		ResourceReference reference;
+		while ((reference = (ResourceReference) collected.poll()) != null) {
+			references.remove(reference);
+			reference.state.close();
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(File directory) {
+		this.directory = directory;
+		this.chunkedProvider.setDirectory(directory);
+	}
+
+	public long getMinSize() {
+		return minSize;
+	}
+
+	public void setMinSize(long minSize) {
+		this.minSize = minSize;
+		this.chunkedProvider.setThreshold(minSize);
+	}
+
+	public long getSegmentSize() {
+		return segmentSize;
+	}
+
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+	
+	private static class ResourceReference extends WeakReference<MappedResource> {
+		private MappedResource.State state;
+		
+		public ResourceReference(MappedResource referent, ReferenceQueue<MappedResource> queue) {
+			super(referent, queue);
+			this.state = referent.getState();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.nabu.libs.resources.api.ReadableResource;
+import be.nabu.libs.resources.api.ResourceContainer;
+import be.nabu.libs.resources.api.WritableResource;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+
+/**
+ * A body backed by a temporary file that is allocated once according to the announced size and accessed through memory mappings.
+ * If more data arrives than announced (e.g. because the headers are stored as well), the file is grown to fit.
+ */
+public class MappedResource implements ReadableResource, WritableResource, Closeable {
+
+	private static final int BLOCK_SIZE = 8192;
+	
+	private State state;
+	
+	MappedResource(File file, long contentLength, long segmentSize) throws IOException {
+		this.state = new State(file, contentLength, segmentSize);
+	}
+	
+	@Override
+	public String getContentType() {
+		return "application/octet-stream";
+	}
+
+	@Override
+	public String getName() {
+		return state.file.getName();
+	}
+
+	@Override
+	public ResourceContainer<?> getParent() {
+		return null;
+	}
+
+	@Override
+	public WritableContainer<ByteBuffer> getWritable() throws IOException {
+		return new WritableContainer<ByteBuffer>() {
+			@Override
+			public void close() throws IOException {
+				// the data stays available for reading
+			}
+			@Override
+			public long write(ByteBuffer buffer) throws IOException {
+				return state.write(buffer);
+			}
+			@Override
+			public void flush() throws IOException {
+				// the mapping is backed by the file, there is no need to force it to disk for a temporary body
+			}
+		};
+	}
+
+	@Override
+	public ReadableContainer<ByteBuffer> getReadable() throws IOException {
+		return new ReadableContainer<ByteBuffer>() {
+			private long position;
+			private byte [] bytes;
+			@Override
+			public void close() throws IOException {
+				// the data stays available for other readers
+			}
+			@Override
+			public long read(ByteBuffer target) throws IOException {
+				if (bytes == null) {
+					bytes = new byte[BLOCK_SIZE];
+				}
+				long read = state.read(position, target, bytes);
+				if (read > 0) {
+					position += read;
+				}
+				return read;
+			}
+		};
+	}
+	
+	public long getSize() {
+		return state.size;
+	}
+	
+	@Override
+	public void close() {
+		state.close();
+	}
+	
+	State getState() {
+		return state;
+	}
+	
+	static class State {
+		private File file;
+		private RandomAccessFile randomAccessFile;
+		private FileChannel channel;
+		private boolean closed;
+		// the size of the data and the current length of the file
+		private long size, length, segmentSize;
+		private List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+		private byte [] buffer;
+		
+		private State(File file, long contentLength, long segmentSize) throws IOException {
+			this.file = file;
+			this.segmentSize = segmentSize;
+			this.randomAccessFile = new RandomAccessFile(file, "rw");
+			this.channel = randomAccessFile.getChannel();
+			// allocate the file once, the mappings are created as the data comes in
+			grow(contentLength);
+		}
+		
+		private void grow(long length) throws IOException {
+			randomAccessFile.setLength(length);
+			this.length = length;
+		}
+		
+		// get a view on the segment that contains the given position, positioned correctly
+		private java.nio.ByteBuffer getSegment(long position) throws IOException {
+			int index = (int) (position / segmentSize);
+			while (segments.size() <= index) {
+				segments.add(null);
+			}
+			MappedByteBuffer segment = segments.get(index);
+			// a mapping never extends beyond the end of the file, if the file has grown since we mapped the last segment, we map it again
+			long mappedSize = Math.min(segmentSize, length - (index * segmentSize));
+			if (segment == null || segment.capacity() < mappedSize) {
+				segment = channel.map(MapMode.READ_WRITE, index * segmentSize, mappedSize);
+				segments.set(index, segment);
+			}
+			java.nio.ByteBuffer view = segment.duplicate();
+			view.position((int) (position - (index * segmentSize)));
+			return view;
+		}
+		
+		private synchronized long write(ByteBuffer buffer) throws IOException {
+			if (closed) {
+				throw new IOException("The resource is closed");
+			}
+			if (this.buffer == null) {
+				this.buffer = new byte[BLOCK_SIZE];
+			}
+			// more data than announced, grow the file just enough to fit it
+			if (size + buffer.remainingData() > length) {
+				grow(size + buffer.remainingData());
+			}
+			long written = 0;
+			while (buffer.remainingData() > 0 && size < length) {
+				java.nio.ByteBuffer segment = getSegment(size);
+				int read = buffer.read(this.buffer, 0, Math.min(BLOCK_SIZE, segment.remaining()));
+				if (read <= 0) {
+					break;
+				}
+				segment.put(this.buffer, 0, read);
+				size += read;
+				written += read;
+			}
+			return written;
+		}
+		
+		private synchronized long read(long position, ByteBuffer target, byte [] bytes) throws IOException {
+			if (closed) {
+				throw new IOException("The resource is closed");
+			}
+			if (position >= size) {
+				return -1;
+			}
+			long read = 0;
+			while (position < size && target.remainingSpace() > 0) {
+				int amount = (int) Math.min(Math.min(target.remainingSpace(), size - position), bytes.length);
+				java.nio.ByteBuffer segment = getSegment(position);
+				amount = Math.min(amount, segment.remaining());
+				segment.get(bytes, 0, amount);
+				int written = target.write(bytes, 0, amount);
+				if (written <= 0) {
+					break;
+				}
+				position += written;
+				read += written;
+			}
+			return read;
+		}
+		
+		synchronized void close() {
+			if (!closed) {
+				closed = true;
+				// there is no supported way to unmap, we drop the references so they can be collected
+				segments.clear();
+				buffer = null;
+				try {
+					randomAccessFile.close();
+				}
+				catch (IOException e) {
+					// ignore
+				}
+				file.delete();
+			}
+		}
+	}
+}
@@ -18,10 +18,12 @@
 package be.nabu.libs.http.server.nio;
 
 import be.nabu.libs.http.api.server.MessageDataProvider;
+import be.nabu.libs.http.server.ServiceUnavailableException;
 import be.nabu.libs.resources.api.ReadableResource;
 import be.nabu.libs.resources.api.WritableResource;
 import be.nabu.libs.resources.memory.MemoryItem;
 import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.impl.MimeUtils;
 
 public class MemoryMessageDataProvider implements MessageDataProvider {
 
@@ -38,7 +40,21 @@ public class MemoryMessageDataProvider implements MessageDataProvider {
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends WritableResource & ReadableResource> T newResource(String method, String target, double version, Header...headers) {
-		return (T) new MemoryItem("tmp", maxSize);
+		return (T) newMemoryItem(maxSize, headers);
+	}
+	
+	/**
+	 * Creates a memory item for a new message, its expected size is reserved in the global body budget
+	 */
+	public static MemoryItem newMemoryItem(long maxSize, Header...headers) {
+		BodyBudget budget = BodyBudget.getInstance();
+		long amount = budget.getReservation(headers == null ? null : MimeUtils.getContentLength(headers), maxSize);
+		if (!budget.reserve(amount)) {
+			throw new ServiceUnavailableException("Not enough memory available to accept a body of " + amount + " bytes", budget.getRetryAfter());
+		}
+		MemoryItem item = new MemoryItem("tmp", maxSize);
+		budget.attach(item, amount);
+		return item;
 	}
 	
 }
@@ -0,0 +1,79 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import be.nabu.libs.resources.api.Resource;
+
+/**
+ * Keeps track of the resource that backs the body of a parsed message.
+ * Once the parser hands off the message, the resource belongs to the exchange, it is released when the response has been sent instead of when the connection is closed.
+ * This means the body of a request can not be read once the response is sent. A handler that wants to keep processing the body after it responds (for example an upload that is accepted with a 202 and processed asynchronously) must call {@link #retain(Object)} before it returns, it then becomes responsible for releasing the resource.
+ * If the message is never released explicitly, the mapping disappears when it is garbage collected and the resource falls back to its own safety net.
+ */
+public class MessageResources {
+
+	private static Map<Object, Resource> resources = Collections.synchronizedMap(new WeakHashMap<Object, Resource>());
+	
+	public static void attach(Object message, Resource resource) {
+		if (message != null && resource != null) {
+			resources.put(message, resource);
+		}
+	}
+	
+	/**
+	 * Takes over the resource backing the body of the message, it is no longer released when the exchange is finished.
+	 * The caller must release it with {@link #release(Resource)} once it is done, or it is only cleaned up when it is garbage collected.
+	 * Returns the resource that was taken over, null if the message has no (or no longer a) resource.
+	 */
+	public static Resource retain(Object message) {
+		return message == null ? null : resources.remove(message);
+	}
+	
+	/**
+	 * The exchange of the message is finished, release the resource backing it (if any)
+	 */
+	public static void finish(Object message) {
+		if (message != null) {
+			release(resources.remove(message));
+		}
+	}
+	
+	/**
+	 * Remove any temporary storage of the resource and give back its reservation in the body budget
+	 */
+	public static void release(Resource resource) {
+		if (resource != null) {
+			if (resource instanceof Closeable) {
+				try {
+					((Closeable) resource).close();
+				}
+				catch (IOException e) {
+					// the temporary storage is cleaned up when the resource is collected
+				}
+			}
+			BodyBudget.getInstance().release(resource);
+		}
+	}
+}
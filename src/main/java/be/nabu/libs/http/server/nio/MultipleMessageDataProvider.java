@@ -26,7 +26,6 @@ import java.util.List;
 import be.nabu.libs.http.api.server.MessageDataProvider;
 import be.nabu.libs.resources.api.ReadableResource;
 import be.nabu.libs.resources.api.WritableResource;
-import be.nabu.libs.resources.memory.MemoryItem;
 import be.nabu.utils.mime.api.Header;
 
 public class MultipleMessageDataProvider implements MessageDataProvider {
@@ -57,7 +56,7 @@ public class MultipleMessageDataProvider implements MessageDataProvider {
 				return newResource;
 			}
 		}
-		return (T) new MemoryItem("tmp", maxSize);
+		return (T) MemoryMessageDataProvider.newMemoryItem(maxSize, headers);
 	}
 
 	public void addProvider(MessageDataProvider...providers) {
@@ -0,0 +1,94 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import java.io.IOException;
+
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+
+/**
+ * A readable view on a buffer that was borrowed from a pool, the buffer is handed back as soon as it has been read entirely or the container is closed.
+ */
+public class PooledReadableContainer implements ReadableContainer<ByteBuffer> {
+
+	private BufferPool pool;
+	private ByteBuffer buffer;
+
+	public PooledReadableContainer(BufferPool pool, ByteBuffer buffer) {
+		this.pool = pool;
+		this.buffer = buffer;
+	}
+	
+	/**
+	 * Copies the given byte arrays into a single pooled buffer
+	 * If they don't fit in a pooled buffer, they are simply wrapped
+	 */
+	@SuppressWarnings("unchecked")
+	public static ReadableContainer<ByteBuffer> wrap(BufferPool pool, byte []...parts) {
+		ByteBuffer buffer = pool.acquireCopyBuffer();
+		try {
+			for (byte [] part : parts) {
+				if (buffer.write(IOUtils.wrap(part, true)) != part.length) {
+					pool.releaseCopyBuffer(buffer);
+					buffer = null;
+					break;
+				}
+			}
+		}
+		catch (IOException e) {
+			pool.releaseCopyBuffer(buffer);
+			buffer = null;
+		}
+		if (buffer != null) {
+			return new PooledReadableContainer(pool, buffer);
+		}
+		ReadableContainer<ByteBuffer> [] wrapped = new ReadableContainer[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			wrapped[i] = IOUtils.wrap(parts[i], true);
+		}
+		return IOUtils.chain(true, wrapped);
+	}
+	
+	@Override
+	public long read(ByteBuffer target) throws IOException {
+		if (buffer == null) {
+			return -1;
+		}
+		long read = buffer.read(target);
+		// once it is drained, we no longer need it
+		if (buffer.remainingData() == 0) {
+			release();
+		}
+		return read == 0 && buffer == null ? -1 : read;
+	}
+
+	@Override
+	public void close() throws IOException {
+		release();
+	}
+	
+	private synchronized void release() {
+		if (buffer != null) {
+			pool.releaseCopyBuffer(buffer);
+			buffer = null;
+		}
+	}
+}
@@ -18,23 +18,22 @@
 package be.nabu.libs.http.server.nio;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
 
 import be.nabu.libs.http.api.server.EnrichingMessageDataProvider;
 import be.nabu.libs.http.api.server.MessageDataProvider;
-import be.nabu.libs.resources.URIUtils;
+import be.nabu.libs.http.server.util.RegexRouter;
 import be.nabu.libs.resources.api.ReadableResource;
 import be.nabu.libs.resources.api.WritableResource;
-import be.nabu.libs.resources.memory.MemoryItem;
 import be.nabu.utils.mime.api.Header;
 import be.nabu.utils.mime.api.ModifiablePart;
 
 public class RoutingMessageDataProvider implements EnrichingMessageDataProvider {
 
 	private Map<String, MessageDataProvider> providers = new HashMap<String, MessageDataProvider>();
+	// the routes compiled for fast lookup, rebuilt whenever they change
+	private volatile RegexRouter<MessageDataProvider> router = new RegexRouter<MessageDataProvider>(providers);
 	
 	private long maxSize;
 	
@@ -51,7 +50,7 @@ public class RoutingMessageDataProvider implements EnrichingMessageDataProvider
 	public <T extends WritableResource & ReadableResource> T newResource(String method, String target, double version, Header...headers) throws IOException {
 		MessageDataProvider provider = getProvider(target);
 		return provider == null 
-			? (T) new MemoryItem("tmp", maxSize) 
+			? (T) MemoryMessageDataProvider.newMemoryItem(maxSize, headers) 
 			: (T) provider.newResource(method, target, version, headers);
 	}
 
@@ -64,38 +63,36 @@ public class RoutingMessageDataProvider implements EnrichingMessageDataProvider
 	}
 
 	private MessageDataProvider getProvider(String target) {
-		String path;
+		// we only need the path of the target, there is no need to parse the entire uri
+		// the query is not part of the route, otherwise every distinct query would end up in the cache of the router
+		int start = 0;
 		if (target.startsWith("http://") || target.startsWith("https://")) {
-			try {
-				path = new URI(URIUtils.encodeURI(target)).getPath();
+			start = target.indexOf('/', target.indexOf("://") + 3);
+			if (start < 0) {
+				return router.route("/");
 			}
-			catch (URISyntaxException e) {
-				throw new RuntimeException(e);
-			}
-		}
-		else {
-			path = target;
 		}
-		String longestMatch = null;
-		for (String potential : providers.keySet()) {
-			if (path.matches(potential)) {
-				if (longestMatch == null || potential.length() > longestMatch.length()) {
-					longestMatch = potential;
-				}
+		int end = target.length();
+		for (int i = start; i < end; i++) {
+			if (target.charAt(i) == '?' || target.charAt(i) == '#') {
+				end = i;
+				break;
 			}
 		}
-		return longestMatch == null ? null : providers.get(longestMatch);
+		return router.route(start == 0 && end == target.length() ? target : target.substring(start, end));
 	}
 	
 	public synchronized void route(String path, MessageDataProvider provider) {
 		Map<String, MessageDataProvider> providers = new HashMap<String, MessageDataProvider>(this.providers);
 		providers.put(path, provider);
 		this.providers = providers;
+		this.router = new RegexRouter<MessageDataProvider>(providers);
 	}
 
 	public synchronized void unroute(String path) {
 		Map<String, MessageDataProvider> providers = new HashMap<String, MessageDataProvider>(this.providers);
 		providers.remove(path);
 		this.providers = providers;
+		this.router = new RegexRouter<MessageDataProvider>(providers);
 	}
 }
@@ -0,0 +1,148 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.nabu.libs.http.api.server.MessageDataProvider;
+import be.nabu.libs.resources.api.ReadableResource;
+import be.nabu.libs.resources.api.WritableResource;
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.impl.MimeUtils;
+
+/**
+ * Keeps message bodies in memory up to a threshold, larger bodies are spilled to a temporary file.
+ * The memory is accounted for in the global {@link BodyBudget}, once it is exhausted new data goes to disk even if the body itself is small.
+ * The temporary files are removed when the resource is closed (which happens when the exchange is finished) or, as a safety net, when the resource is garbage collected.
+ */
+public class SpillingMessageDataProvider implements MessageDataProvider {
+
+	private long threshold, maxSize;
+	private File directory;
+	
+	private AtomicLong spilled = new AtomicLong(), filesInUse = new AtomicLong();
+	
+	// resources that are garbage collected without being closed are cleaned up through this queue
+	private ReferenceQueue<SpillingResource> collected = new ReferenceQueue<SpillingResource>();
+	private Set<ResourceReference> references = Collections.newSetFromMap(new ConcurrentHashMap<ResourceReference, Boolean>());
+	
+	public SpillingMessageDataProvider(long threshold, long maxSize, File directory) {
+		this.threshold = threshold;
+		this.maxSize = maxSize;
+		this.directory = directory;
+	}
+	
+	public SpillingMessageDataProvider(long maxSize) {
+		this(
+			Long.parseLong(System.getProperty("http.spill.threshold", "" + (1024 * 1024))),
+			maxSize,
+			System.getProperty("http.spill.directory") == null ? null : new File(System.getProperty("http.spill.directory"))
+		);
+	}
+	
+	public SpillingMessageDataProvider() {
+		this(0);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends WritableResource & ReadableResource> T newResource(String method, String target, double version, Header...headers) throws IOException {
+		cleanup();
+		SpillingResource resource = new SpillingResource(this, "tmp", maxSize);
+		// if we already know it is too big to keep in memory, we don't bother
+		Long contentLength = headers == null ? null : MimeUtils.getContentLength(headers);
+		if (contentLength != null && contentLength > threshold) {
+			resource.spill();
+		}
+		references.add(new ResourceReference(resource, collected));
+		return (T) resource;
+	}
+	
+	private void cleanup() {
+		ResourceReference reference;
+		while ((reference = (ResourceReference) collected.poll()) != null) {
+			references.remove(reference);
+			reference.state.close();
+		}
+	}
+	
+	File newFile() throws IOException {
+		spilled.incrementAndGet();
+		filesInUse.incrementAndGet();
+		return File.createTempFile("http-", ".body", directory);
+	}
+	
+	void fileRemoved() {
+		filesInUse.decrementAndGet();
+	}
+	
+	public long getThreshold() {
+		return threshold;
+	}
+	
+	public void setThreshold(long threshold) {
+		this.threshold = threshold;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * The total amount of bodies that were spilled to disk
+	 */
+	public long getSpilled() {
+		return spilled.get();
+	}
+	
+	/**
+	 * The amount of temporary files that currently exist
+	 */
+	public long getFilesInUse() {
+		return filesInUse.get();
+	}
+	
+	private static class ResourceReference extends WeakReference<SpillingResource> {
+		private SpillingResource.State state;
+		
+		public ResourceReference(SpillingResource referent, ReferenceQueue<SpillingResource> queue) {
+			super(referent, queue);
+			this.state = referent.getState();
+		}
+	}
+}
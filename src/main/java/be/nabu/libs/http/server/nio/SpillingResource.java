@@ -0,0 +1,265 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.nabu.libs.resources.api.ReadableResource;
+import be.nabu.libs.resources.api.ResourceContainer;
+import be.nabu.libs.resources.api.WritableResource;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+
+/**
+ * A re-readable body that lives in memory until it is spilled to a temporary file by the {@link SpillingMessageDataProvider}
+ */
+public class SpillingResource implements ReadableResource, WritableResource, Closeable {
+
+	private static final int BLOCK_SIZE = 8192;
+	
+	private SpillingMessageDataProvider provider;
+	private String name;
+	private long maxSize;
+	private State state = new State();
+	
+	SpillingResource(SpillingMessageDataProvider provider, String name, long maxSize) {
+		this.provider = provider;
+		this.name = name;
+		this.maxSize = maxSize;
+	}
+	
+	@Override
+	public String getContentType() {
+		return "application/octet-stream";
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public ResourceContainer<?> getParent() {
+		return null;
+	}
+
+	@Override
+	public WritableContainer<ByteBuffer> getWritable() throws IOException {
+		return new WritableContainer<ByteBuffer>() {
+			@Override
+			public void close() throws IOException {
+				// the data stays available for reading
+			}
+			@Override
+			public long write(ByteBuffer buffer) throws IOException {
+				return state.write(buffer);
+			}
+			@Override
+			public void flush() throws IOException {
+				// nothing is buffered
+			}
+		};
+	}
+
+	@Override
+	public ReadableContainer<ByteBuffer> getReadable() throws IOException {
+		return new ReadableContainer<ByteBuffer>() {
+			private long position;
+			private byte [] bytes;
+			@Override
+			public void close() throws IOException {
+				// the data stays available for other readers
+			}
+			@Override
+			public long read(ByteBuffer target) throws IOException {
+				if (bytes == null) {
+					bytes = new byte[BLOCK_SIZE];
+				}
+				long read = state.read(position, target, bytes);
+				if (read > 0) {
+					position += read;
+				}
+				return read;
+			}
+		};
+	}
+	
+	/**
+	 * Moves the data to disk, any further writes will go to disk as well
+	 */
+	public void spill() throws IOException {
+		state.spill();
+	}
+	
+	public boolean isSpilled() {
+		return state.file != null;
+	}
+	
+	public long getSize() {
+		return state.size;
+	}
+	
+	@Override
+	public void close() {
+		state.close();
+	}
+
+	State getState() {
+		return state;
+	}
+	
+	// everything that needs to be cleaned up lives here so it can be done even when the resource itself is garbage collected
+	class State {
+		private List<byte[]> blocks = new ArrayList<byte[]>();
+		private long size, reserved;
+		private File file;
+		private FileChannel channel;
+		private byte [] buffer;
+		private boolean closed;
+		
+		private synchronized long write(ByteBuffer buffer) throws IOException {
+			if (closed) {
+				throw new IOException("The resource is closed");
+			}
+			long written = 0;
+			while (buffer.remainingData() > 0) {
+				// like the memory item, we simply write no more than allowed and let the caller decide what to do about it
+				long allowed = maxSize > 0 ? maxSize - size : Long.MAX_VALUE;
+				if (allowed <= 0) {
+					break;
+				}
+				int offset = (int) (size % BLOCK_SIZE);
+				// we need a new block, either get room in memory or go to disk
+				if (channel == null && offset == 0 && size == blocks.size() * (long) BLOCK_SIZE) {
+					if (size + BLOCK_SIZE > provider.getThreshold() || !BodyBudget.getInstance().tryReserve(BLOCK_SIZE)) {
+						spill();
+					}
+					else {
+						reserved += BLOCK_SIZE;
+						blocks.add(new byte[BLOCK_SIZE]);
+					}
+				}
+				if (channel == null) {
+					int read = buffer.read(blocks.get(blocks.size() - 1), offset, (int) Math.min(allowed, BLOCK_SIZE - offset));
+					if (read <= 0) {
+						break;
+					}
+					size += read;
+					written += read;
+				}
+				else {
+					if (this.buffer == null) {
+						this.buffer = new byte[BLOCK_SIZE];
+					}
+					int read = buffer.read(this.buffer, 0, (int) Math.min(allowed, BLOCK_SIZE));
+					if (read <= 0) {
+						break;
+					}
+					java.nio.ByteBuffer wrapped = java.nio.ByteBuffer.wrap(this.buffer, 0, read);
+					while (wrapped.hasRemaining()) {
+						channel.write(wrapped, size + wrapped.position());
+					}
+					size += read;
+					written += read;
+				}
+			}
+			return written;
+		}
+		
+		private synchronized long read(long position, ByteBuffer target, byte [] bytes) throws IOException {
+			if (closed) {
+				throw new IOException("The resource is closed");
+			}
+			if (position >= size) {
+				return -1;
+			}
+			long read = 0;
+			while (position < size && target.remainingSpace() > 0) {
+				int amount = (int) Math.min(target.remainingSpace(), size - position);
+				int written;
+				if (channel == null) {
+					int offset = (int) (position % BLOCK_SIZE);
+					written = target.write(blocks.get((int) (position / BLOCK_SIZE)), offset, Math.min(amount, BLOCK_SIZE - offset));
+				}
+				else {
+					java.nio.ByteBuffer wrapped = java.nio.ByteBuffer.wrap(bytes, 0, Math.min(amount, bytes.length));
+					int fileRead = channel.read(wrapped, position);
+					if (fileRead <= 0) {
+						break;
+					}
+					written = target.write(bytes, 0, fileRead);
+				}
+				if (written <= 0) {
+					break;
+				}
+				position += written;
+				read += written;
+			}
+			return read;
+		}
+		
+		private synchronized void spill() throws IOException {
+			if (channel == null && !closed) {
+				file = provider.newFile();
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+				long position = 0;
+				for (byte [] block : blocks) {
+					java.nio.ByteBuffer wrapped = java.nio.ByteBuffer.wrap(block, 0, (int) Math.min(BLOCK_SIZE, size - position));
+					while (wrapped.hasRemaining()) {
+						channel.write(wrapped, position + wrapped.position());
+					}
+					position += wrapped.limit();
+				}
+				blocks.clear();
+				BodyBudget.getInstance().release(reserved);
+				reserved = 0;
+			}
+		}
+		
+		synchronized void close() {
+			if (!closed) {
+				closed = true;
+				blocks.clear();
+				buffer = null;
+				BodyBudget.getInstance().release(reserved);
+				reserved = 0;
+				if (channel != null) {
+					try {
+						channel.close();
+					}
+					catch (IOException e) {
+						// ignore
+					}
+					channel = null;
+				}
+				if (file != null) {
+					file.delete();
+					provider.fileRemoved();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the value of the longest host regex that matches a host, routes registered on the null host are the default.
+ * Because there are usually a lot of hosts and few of them are real regexes, the routes are split up:
+ * - literal hosts (no regex metacharacters apart from escaped dots) are looked up in a hash map, a plain dot matches any character so a host like "a.b.com" is a regex
+ * - wildcard subdomains (e.g. ".*\.example\.com" or "[^.]+\.example\.com") are indexed on their labels in reverse so only the relevant ones are evaluated
+ * - all other regexes are evaluated as usual
+ * A literal host that no regex can override is resolved without any locking or caching, the decisions that required regexes are kept in a bounded cache.
+ */
+public class HostRouter<T> {
+
+	private static final Object NONE = new Object();
+	private static final String [] WILDCARDS = new String [] { ".*\\.", ".+\\.", "[^.]+\\.", "[^\\.]+\\." };
+	
+	private Map<String, Route<T>> literals = new HashMap<String, Route<T>>();
+	private Node<T> wildcards = new Node<T>();
+	private List<Route<T>> regexes = new ArrayList<Route<T>>();
+	private T defaultValue;
+	// the length of the longest regex that is not a literal, a literal match at least as long can not be overridden
+	private int maxRegexLength;
+	private Map<String, Object> cache;
+	private int cacheSize;
+	
+	public HostRouter(Map<String, T> routes, int cacheSize) {
+		for (Map.Entry<String, T> entry : routes.entrySet()) {
+			if (entry.getKey() == null) {
+				defaultValue = entry.getValue();
+			}
+			else {
+				add(entry.getKey(), entry.getValue());
+			}
+		}
+		if (cacheSize > 0) {
+			this.cache = new ConcurrentHashMap<String, Object>();
+			this.cacheSize = cacheSize;
+		}
+	}
+	
+	public HostRouter(Map<String, T> routes) {
+		this(routes, Integer.parseInt(System.getProperty("http.router.cacheSize", "1024")));
+	}
+	
+	private void add(String regex, T value) {
+		String literal = getLiteral(regex);
+		if (literal != null) {
+			Route<T> existing = literals.get(literal);
+			// if both "my-host\.com" and "my\-host\.com" are registered, the longest one wins as it would with regexes
+			if (existing == null || regex.length() > existing.regex.length()) {
+				literals.put(literal, new Route<T>(regex, value));
+			}
+			return;
+		}
+		for (String wildcard : WILDCARDS) {
+			if (regex.startsWith(wildcard)) {
+				String suffix = getLiteral(regex.substring(wildcard.length()));
+				if (suffix != null && !suffix.isEmpty()) {
+					Node<T> node = wildcards;
+					int end = suffix.length();
+					while (end > 0) {
+						int start = suffix.lastIndexOf('.', end - 1);
+						String label = suffix.substring(start + 1, end);
+						Node<T> child = node.children.get(label);
+						if (child == null) {
+							child = new Node<T>();
+							node.children.put(label, child);
+						}
+						node = child;
+						end = start < 0 ? 0 : start;
+					}
+					node.routes.add(new Route<T>(regex, value));
+					maxRegexLength = Math.max(maxRegexLength, regex.length());
+					return;
+				}
+			}
+		}
+		regexes.add(new Route<T>(regex, value));
+		maxRegexLength = Math.max(maxRegexLength, regex.length());
+	}
+	
+	/**
+	 * The host the regex matches literally, null if it is not a literal
+	 */
+	static String getLiteral(String regex) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < regex.length(); i++) {
+			char character = regex.charAt(i);
+			if (character == '\\') {
+				if (i < regex.length() - 1 && (regex.charAt(i + 1) == '.' || regex.charAt(i + 1) == '-')) {
+					builder.append(regex.charAt(++i));
+				}
+				else {
+					return null;
+				}
+			}
+			else if (".[](){}*+?^$|".indexOf(character) >= 0) {
+				return null;
+			}
+			else {
+				builder.append(character);
+			}
+		}
+		return builder.toString();
+	}
+	
+	@SuppressWarnings("unchecked")
+	public T route(String host) {
+		if (host == null) {
+			return defaultValue;
+		}
+		Route<T> best = literals.get(host);
+		if (best != null && best.regex.length() >= maxRegexLength) {
+			return best.value;
+		}
+		if (cache != null) {
+			Object cached = cache.get(host);
+			if (cached != null) {
+				return cached == NONE ? null : (T) cached;
+			}
+		}
+		// walk the labels from the top level domain down
+		Node<T> node = wildcards;
+		int end = host.length();
+		while (end > 0 && node != null) {
+			int start = host.lastIndexOf('.', end - 1);
+			node = node.children.get(host.substring(start + 1, end));
+			if (node != null) {
+				for (Route<T> route : node.routes) {
+					if ((best == null || route.regex.length() > best.regex.length()) && route.getPattern().matcher(host).matches()) {
+						best = route;
+					}
+				}
+			}
+			end = start < 0 ? 0 : start;
+		}
+		for (Route<T> route : regexes) {
+			if ((best == null || route.regex.length() > best.regex.length()) && route.getPattern().matcher(host).matches()) {
+				best = route;
+			}
+		}
+		T value = best == null ? defaultValue : best.value;
+		if (cache != null) {
+			// we don't bother tracking usage, if the cache is full we simply start over
+			if (cache.size() >= cacheSize) {
+				cache.clear();
+			}
+			cache.put(host, value == null ? NONE : value);
+		}
+		return value;
+	}
+	
+	private static class Node<T> {
+		private Map<String, Node<T>> children = new HashMap<String, Node<T>>();
+		private List<Route<T>> routes = new ArrayList<Route<T>>();
+	}
+	
+	private static class Route<T> {
+		private String regex;
+		private Pattern pattern;
+		private T value;
+		
+		public Route(String regex, T value) {
+			this.regex = regex;
+			this.value = value;
+		}
+		
+		// literal routes never need their pattern
+		public Pattern getPattern() {
+			if (pattern == null) {
+				pattern = Pattern.compile(regex);
+			}
+			return pattern;
+		}
+	}
+}
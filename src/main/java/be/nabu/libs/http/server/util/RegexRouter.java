@@ -0,0 +1,166 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the value of the longest regex that matches the input, the same semantics as looping over the regexes with String.matches().
+ * The regexes are compiled once and indexed on their literal prefix in a trie so only the routes that can possibly match are evaluated.
+ * An input that equals a literal route no regex can override is resolved without any locking or caching, the decisions that required regexes are kept in a bounded cache.
+ * The router itself is immutable (apart from the cache), create a new one when the routes change.
+ */
+public class RegexRouter<T> {
+
+	private static final Object NONE = new Object();
+	
+	private Node<T> root = new Node<T>();
+	// routes without any special characters
+	private Map<String, Route<T>> literals = new HashMap<String, Route<T>>();
+	// the length of the longest route that is a real regex, a literal match at least as long can not be overridden
+	private int maxRegexLength;
+	private Map<String, Object> cache;
+	private int cacheSize, routes;
+	
+	public RegexRouter(Map<String, T> routes, int cacheSize) {
+		for (Map.Entry<String, T> entry : routes.entrySet()) {
+			if (entry.getKey() != null) {
+				add(entry.getKey(), entry.getValue());
+			}
+		}
+		if (cacheSize > 0) {
+			this.cache = new ConcurrentHashMap<String, Object>();
+			this.cacheSize = cacheSize;
+		}
+	}
+	
+	public RegexRouter(Map<String, T> routes) {
+		this(routes, Integer.parseInt(System.getProperty("http.router.cacheSize", "1024")));
+	}
+	
+	private void add(String regex, T value) {
+		String prefix = getLiteralPrefix(regex);
+		Node<T> node = root;
+		for (int i = 0; i < prefix.length(); i++) {
+			Node<T> child = node.children.get(prefix.charAt(i));
+			if (child == null) {
+				child = new Node<T>();
+				node.children.put(prefix.charAt(i), child);
+			}
+			node = child;
+		}
+		// a regex without any special characters can be matched with a simple equals
+		Route<T> route = new Route<T>(regex, prefix.length() == regex.length() ? null : Pattern.compile(regex), value);
+		node.routes.add(route);
+		if (route.pattern == null) {
+			literals.put(regex, route);
+		}
+		else {
+			maxRegexLength = Math.max(maxRegexLength, regex.length());
+		}
+		routes++;
+	}
+	
+	/**
+	 * The part of the regex that has to literally match the start of the input
+	 */
+	static String getLiteralPrefix(String regex) {
+		// alternation can happen anywhere, we don't try to be smart about it
+		if (regex.indexOf('|') >= 0) {
+			return "";
+		}
+		int index = 0;
+		while (index < regex.length() && "\\[](){}.*+?^$".indexOf(regex.charAt(index)) < 0) {
+			index++;
+		}
+		// the last character is subject to a quantifier
+		if (index > 0 && index < regex.length() && "*?{".indexOf(regex.charAt(index)) >= 0) {
+			index--;
+		}
+		return regex.substring(0, index);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public T route(String input) {
+		if (input == null) {
+			return null;
+		}
+		Route<T> literal = literals.get(input);
+		if (literal != null && literal.regex.length() >= maxRegexLength) {
+			return literal.value;
+		}
+		if (cache != null) {
+			Object cached = cache.get(input);
+			if (cached != null) {
+				return cached == NONE ? null : (T) cached;
+			}
+		}
+		Route<T> best = null;
+		Node<T> node = root;
+		int index = 0;
+		while (node != null) {
+			for (Route<T> route : node.routes) {
+				// we only care about matches that are more specific than the one we already have
+				if ((best == null || route.regex.length() > best.regex.length()) && route.matches(input)) {
+					best = route;
+				}
+			}
+			node = index < input.length() ? node.children.get(input.charAt(index++)) : null;
+		}
+		T value = best == null ? null : best.value;
+		if (cache != null) {
+			// we don't bother tracking usage, if the cache is full we simply start over
+			if (cache.size() >= cacheSize) {
+				cache.clear();
+			}
+			cache.put(input, value == null ? NONE : value);
+		}
+		return value;
+	}
+	
+	public int size() {
+		return routes;
+	}
+	
+	private static class Node<T> {
+		private Map<Character, Node<T>> children = new HashMap<Character, Node<T>>();
+		private List<Route<T>> routes = new ArrayList<Route<T>>();
+	}
+	
+	private static class Route<T> {
+		private String regex;
+		private Pattern pattern;
+		private T value;
+		
+		public Route(String regex, Pattern pattern, T value) {
+			this.regex = regex;
+			this.pattern = pattern;
+			this.value = value;
+		}
+		
+		public boolean matches(String input) {
+			return pattern == null ? regex.equals(input) : pattern.matcher(input).matches();
+		}
+	}
+}
@@ -0,0 +1,302 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import be.nabu.libs.http.server.ResourceCache.CachedResource;
+import be.nabu.libs.resources.api.ReadableResource;
+import be.nabu.libs.resources.api.ResourceContainer;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import org.junit.Test;
+
+public class ResourceCacheTest {
+	
+	private static byte [] newContent(int size) {
+		byte [] content = new byte[size];
+		for (int i = 0; i < size; i++) {
+			content[i] = (byte) ('a' + (i % 26));
+		}
+		return content;
+	}
+	
+	private static ResourceCache newCache(long maxSize, long maxEntrySize) {
+		ResourceCache cache = new ResourceCache(maxSize, maxEntrySize);
+		cache.setPrecompress(false);
+		return cache;
+	}
+	
+	@Test
+	public void testGet() throws IOException {
+		ResourceCache cache = newCache(1000, 1000);
+		assertNull(cache.get("/a.css"));
+		byte [] content = newContent(100);
+		assertNotNull(cache.put("/a.css", new TestResource("a.css", "text/css", content)));
+		ReadableResource cached = cache.get("/a.css");
+		assertNotNull(cached);
+		assertEquals("text/css", cached.getContentType());
+		assertArrayEquals(content, IOUtils.toBytes(cached.getReadable()));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(100, cache.getSize());
+	}
+	
+	@Test
+	public void testReplace() throws IOException {
+		ResourceCache cache = newCache(1000, 1000);
+		cache.put("/a.css", new TestResource("a.css", "text/css", newContent(100)));
+		cache.put("/a.css", new TestResource("a.css", "text/css", newContent(200)));
+		assertEquals(1, cache.getEntries());
+		assertEquals(200, cache.getSize());
+		cache.remove("/a.css");
+		assertEquals(0, cache.getSize());
+		assertNull(cache.get("/a.css"));
+	}
+	
+	@Test
+	public void testEviction() throws IOException {
+		ResourceCache cache = newCache(1000, 1000);
+		cache.put("/a", new TestResource("a", "text/plain", newContent(300)));
+		cache.put("/b", new TestResource("b", "text/plain", newContent(300)));
+		cache.put("/c", new TestResource("c", "text/plain", newContent(300)));
+		// a is now more recently used than b and c
+		assertNotNull(cache.get("/a"));
+		cache.put("/d", new TestResource("d", "text/plain", newContent(300)));
+		
+		assertTrue(cache.getSize() <= cache.getMaxSize());
+		assertEquals(1, cache.getEvictions());
+		assertNotNull(cache.get("/a"));
+		assertNull(cache.get("/b"));
+		assertNotNull(cache.get("/c"));
+		assertNotNull(cache.get("/d"));
+	}
+	
+	@Test
+	public void testOversized() throws IOException {
+		ResourceCache cache = newCache(1000, 100);
+		assertNull(cache.put("/big", new TestResource("big", "text/plain", newContent(101))));
+		assertTrue(cache.isBypassed("/big"));
+		assertEquals(1, cache.getBypasses());
+		assertEquals(0, cache.getSize());
+		
+		// exactly the maximum is still allowed
+		assertNotNull(cache.put("/fits", new TestResource("fits", "text/plain", newContent(100))));
+		assertFalse(cache.isBypassed("/fits"));
+		
+		// once removed, we check again
+		cache.remove("/big");
+		assertFalse(cache.isBypassed("/big"));
+		cache.put("/big", new TestResource("big", "text/plain", newContent(101)));
+		cache.setMaxEntrySize(200);
+		assertFalse(cache.isBypassed("/big"));
+	}
+	
+	@Test
+	public void testProvidedGzip() throws IOException {
+		ResourceCache cache = newCache(1000, 1000);
+		byte [] gzipped = gzip(newContent(100));
+		CachedResource cached = (CachedResource) cache.put("/a.js", new TestResource("a.js", "application/javascript", newContent(100)), new TestResource("a.js.gz", "application/gzip", gzipped));
+		assertArrayEquals(gzipped, cached.getContent("gzip"));
+		assertNull(cached.getContent("deflate"));
+		assertEquals(100 + gzipped.length, cache.getSize());
+	}
+	
+	@Test
+	public void testCompressedVariants() throws IOException, InterruptedException {
+		ResourceCache cache = new ResourceCache(100000, 10000);
+		cache.setPrecompress(true);
+		byte [] content = newContent(5000);
+		CachedResource cached = (CachedResource) cache.put("/a.css", new TestResource("a.css", "text/css", content));
+		assertTrue(cache.awaitCompression(10000));
+		
+		byte [] gzip = cached.getContent("gzip");
+		byte [] deflate = cached.getContent("deflate");
+		assertNotNull(gzip);
+		assertNotNull(deflate);
+		assertArrayEquals(content, inflate(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+		assertArrayEquals(content, inflate(new InflaterInputStream(new ByteArrayInputStream(deflate))));
+		// the variants are accounted for
+		assertEquals(content.length + gzip.length + deflate.length, cached.getSize());
+		assertEquals(cached.getSize(), cache.getSize());
+	}
+	
+	@Test
+	public void testVariantsRespectBudget() throws IOException, InterruptedException {
+		// the plain content fits, the variants push it over the budget
+		ResourceCache cache = new ResourceCache(2010, 10000);
+		cache.setPrecompress(true);
+		cache.put("/a.css", new TestResource("a.css", "text/css", newContent(1000)));
+		cache.put("/b.css", new TestResource("b.css", "text/css", newContent(1000)));
+		assertTrue(cache.awaitCompression(10000));
+		assertTrue(cache.getSize() <= cache.getMaxSize());
+		assertTrue(cache.getEvictions() > 0);
+	}
+	
+	@Test
+	public void testRemovedEntryGetsNoVariants() throws IOException, InterruptedException {
+		ResourceCache cache = new ResourceCache(100000, 10000);
+		cache.setPrecompress(true);
+		cache.put("/a.css", new TestResource("a.css", "text/css", newContent(5000)));
+		cache.remove("/a.css");
+		assertTrue(cache.awaitCompression(10000));
+		assertEquals(0, cache.getSize());
+	}
+	
+	@Test
+	public void testIncompressibleType() throws IOException, InterruptedException {
+		ResourceCache cache = new ResourceCache(100000, 10000);
+		cache.setPrecompress(true);
+		CachedResource cached = (CachedResource) cache.put("/a.png", new TestResource("a.png", "image/png", newContent(5000)));
+		assertTrue(cache.awaitCompression(10000));
+		assertNull(cached.getContent("gzip"));
+		assertNull(cached.getContent("deflate"));
+		assertEquals(5000, cache.getSize());
+	}
+	
+	@Test
+	public void testCompressible() {
+		assertTrue(ResourceCache.isCompressible("text/css"));
+		assertTrue(ResourceCache.isCompressible("text/html; charset=utf-8"));
+		assertTrue(ResourceCache.isCompressible("application/javascript"));
+		assertTrue(ResourceCache.isCompressible("image/svg+xml"));
+		assertTrue(ResourceCache.isCompressible(null));
+		assertFalse(ResourceCache.isCompressible("image/png"));
+		assertFalse(ResourceCache.isCompressible("IMAGE/JPEG"));
+		assertFalse(ResourceCache.isCompressible("video/mp4"));
+		assertFalse(ResourceCache.isCompressible("font/woff2"));
+		assertFalse(ResourceCache.isCompressible("application/zip"));
+	}
+	
+	@Test
+	public void testETag() throws IOException {
+		ResourceCache cache = newCache(1000, 1000);
+		CachedResource a = (CachedResource) cache.put("/a", new TestResource("a", "text/plain", newContent(100)));
+		CachedResource b = (CachedResource) cache.put("/b", new TestResource("b", "text/plain", newContent(100)));
+		CachedResource c = (CachedResource) cache.put("/c", new TestResource("c", "text/plain", newContent(101)));
+		assertEquals(a.getETag(), b.getETag());
+		assertFalse(a.getETag().equals(c.getETag()));
+		assertTrue(a.getETag().startsWith("\"") && a.getETag().endsWith("\""));
+	}
+	
+	@Test
+	public void testPaths() throws IOException {
+		ResourceCache cache = newCache(1000, 1000);
+		cache.put("/a", new TestResource("a", "text/plain", newContent(100)));
+		cache.put("/b", new TestResource("b", "text/plain", newContent(100)));
+		cache.put("/c", new TestResource("c", "text/plain", newContent(100)));
+		assertNotNull(cache.get("/a"));
+		assertEquals(Arrays.asList("/a", "/c", "/b"), cache.getPaths());
+	}
+	
+	@Test
+	public void testRankedAccess() throws IOException {
+		ResourceCache cache = newCache(1000, 1000);
+		// a manifest of three paths, loaded in the wrong order
+		long newest = cache.reserveAccess(3);
+		cache.put("/cold", new TestResource("cold", "text/plain", newContent(300)), null, newest - 2);
+		cache.put("/hot", new TestResource("hot", "text/plain", newContent(300)), null, newest);
+		cache.put("/warm", new TestResource("warm", "text/plain", newContent(300)), null, newest - 1);
+		assertEquals(Arrays.asList("/hot", "/warm", "/cold"), cache.getPaths());
+		
+		// anything that is added afterwards is more recent than the whole manifest
+		cache.put("/new", new TestResource("new", "text/plain", newContent(300)));
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get("/cold"));
+		assertNotNull(cache.get("/hot"));
+		assertNotNull(cache.get("/warm"));
+		assertNotNull(cache.get("/new"));
+	}
+	
+	@Test
+	public void testEvictionTarget() throws IOException, InterruptedException {
+		ResourceCache cache = new ResourceCache(1000, 1000);
+		assertEquals(900, cache.getEvictionTarget());
+		cache.setPrecompress(true);
+		cache.put("/a.css", new TestResource("a.css", "text/css", newContent(500)));
+		assertTrue(cache.awaitCompression(10000));
+		// once the compression is done, nothing is pending anymore
+		assertEquals(0, cache.getPendingSize());
+		assertTrue(cache.getSize() <= cache.getEvictionTarget());
+	}
+	
+	private static byte [] gzip(byte [] content) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(output);
+		gzip.write(content);
+		gzip.close();
+		return output.toByteArray();
+	}
+	
+	private static byte [] inflate(InputStream input) throws IOException {
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte [] buffer = new byte[4096];
+			int read;
+			while ((read = input.read(buffer)) > 0) {
+				output.write(buffer, 0, read);
+			}
+			return output.toByteArray();
+		}
+		finally {
+			input.close();
+		}
+	}
+	
+	private static class TestResource implements ReadableResource {
+		private String name, contentType;
+		private byte [] content;
+		
+		public TestResource(String name, String contentType, byte [] content) {
+			this.name = name;
+			this.contentType = contentType;
+			this.content = content;
+		}
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+		@Override
+		public String getName() {
+			return name;
+		}
+		@Override
+		public ResourceContainer<?> getParent() {
+			return null;
+		}
+		@Override
+		public ReadableContainer<ByteBuffer> getReadable() throws IOException {
+			return IOUtils.wrap(content, true);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BodyBudgetTest {
+	
+	@Test
+	public void testReserveAndRelease() {
+		BodyBudget budget = new BodyBudget(100, 10, 5);
+		assertTrue(budget.reserve(60));
+		assertTrue(budget.reserve(40));
+		assertEquals(100, budget.getInUse());
+		assertEquals(2, budget.getReservations());
+		
+		// exhausted
+		assertFalse(budget.reserve(1));
+		assertEquals(1, budget.getRejections());
+		
+		budget.release(60);
+		assertEquals(40, budget.getInUse());
+		assertEquals(100, budget.getPeak());
+		assertTrue(budget.reserve(50));
+		assertEquals(90, budget.getInUse());
+	}
+	
+	@Test
+	public void testTryReserveIsNoRejection() {
+		BodyBudget budget = new BodyBudget(10, 10, 5);
+		assertTrue(budget.tryReserve(10));
+		assertFalse(budget.tryReserve(1));
+		assertEquals(0, budget.getRejections());
+		assertEquals(10, budget.getInUse());
+	}
+	
+	@Test
+	public void testUnlimited() {
+		BodyBudget budget = new BodyBudget(0, 10, 5);
+		assertTrue(budget.reserve(Long.MAX_VALUE / 2));
+		assertEquals(0, budget.getRejections());
+	}
+	
+	@Test
+	public void testReservationSize() {
+		BodyBudget budget = new BodyBudget(0, 1000, 5);
+		assertEquals(50, budget.getReservation(50l, 0));
+		assertEquals(1000, budget.getReservation(null, 0));
+		assertEquals(100, budget.getReservation(null, 100));
+		assertEquals(100, budget.getReservation(5000l, 100));
+	}
+	
+	@Test
+	public void testAttachedReservation() {
+		BodyBudget budget = new BodyBudget(100, 10, 5);
+		Object owner = new Object();
+		assertTrue(budget.reserve(30));
+		budget.attach(owner, 30);
+		assertEquals(30, budget.getInUse());
+		
+		budget.release(owner);
+		assertEquals(0, budget.getInUse());
+		// a second release must not give back the amount again
+		budget.release(owner);
+		assertEquals(0, budget.getInUse());
+		budget.release((Object) null);
+	}
+	
+	@Test
+	public void testReattachReleasesPrevious() {
+		BodyBudget budget = new BodyBudget(100, 10, 5);
+		Object owner = new Object();
+		assertTrue(budget.reserve(30));
+		budget.attach(owner, 30);
+		assertTrue(budget.reserve(20));
+		budget.attach(owner, 20);
+		assertEquals(20, budget.getInUse());
+		budget.release(owner);
+		assertEquals(0, budget.getInUse());
+	}
+}
@@ -0,0 +1,103 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class HTTPHeadScannerTest {
+	
+	private static final byte [] HEAD = "GET /index.html HTTP/1.1\r\nHost: example.com\r\nAccept: */*\r\n\r\nbody".getBytes(StandardCharsets.US_ASCII);
+	private static final int HEAD_LENGTH = HEAD.length - "body".length();
+	private static final int LINE_END = "GET /index.html HTTP/1.1\r".length();
+	
+	@Test
+	public void testCompleteHead() {
+		HTTPHeadScanner scanner = new HTTPHeadScanner();
+		assertEquals(HEAD_LENGTH, scanner.scan(HEAD, HEAD.length));
+		assertEquals(LINE_END, scanner.getLineEnd());
+	}
+	
+	@Test
+	public void testLinefeedsOnly() {
+		byte [] head = "GET / HTTP/1.1\nHost: example.com\n\n".getBytes(StandardCharsets.US_ASCII);
+		HTTPHeadScanner scanner = new HTTPHeadScanner();
+		assertEquals(head.length, scanner.scan(head, head.length));
+		assertEquals("GET / HTTP/1.1".length(), scanner.getLineEnd());
+	}
+	
+	@Test
+	public void testIncompleteHead() {
+		HTTPHeadScanner scanner = new HTTPHeadScanner();
+		// up to and including the first linefeed of the closing empty line
+		int length = HEAD_LENGTH - 2;
+		assertEquals(-1, scanner.scan(HEAD, length));
+		assertEquals(LINE_END, scanner.getLineEnd());
+		assertTrue(scanner.getOffset() <= length);
+	}
+	
+	/**
+	 * The head arrives in two packets, every possible split point must give the same result
+	 */
+	@Test
+	public void testEverySplit() {
+		for (int split = 1; split < HEAD_LENGTH; split++) {
+			HTTPHeadScanner scanner = new HTTPHeadScanner();
+			assertEquals("Split at " + split, -1, scanner.scan(HEAD, split));
+			// the scan resumes, it does not go back further than the bytes it needs to decide
+			assertTrue("Split at " + split, scanner.getOffset() <= split);
+			assertEquals("Split at " + split, HEAD_LENGTH, scanner.scan(HEAD, HEAD.length));
+			assertEquals("Split at " + split, LINE_END, scanner.getLineEnd());
+		}
+	}
+	
+	/**
+	 * The head arrives one byte at a time
+	 */
+	@Test
+	public void testByteByByte() {
+		HTTPHeadScanner scanner = new HTTPHeadScanner();
+		int result = -1;
+		for (int length = 1; length <= HEAD.length && result < 0; length++) {
+			result = scanner.scan(HEAD, length);
+			if (result < 0) {
+				assertTrue(length < HEAD_LENGTH);
+			}
+			else {
+				assertEquals(HEAD_LENGTH, length);
+			}
+		}
+		assertEquals(HEAD_LENGTH, result);
+	}
+	
+	@Test
+	public void testReset() {
+		HTTPHeadScanner scanner = new HTTPHeadScanner();
+		assertEquals(HEAD_LENGTH, scanner.scan(HEAD, HEAD.length));
+		scanner.reset();
+		assertEquals(-1, scanner.getLineEnd());
+		assertEquals(-1, scanner.getHeadEnd());
+		assertEquals(0, scanner.getOffset());
+		byte [] other = "GET / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(other.length, scanner.scan(other, other.length));
+	}
+}
@@ -0,0 +1,214 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.text.ParseException;
+
+import be.nabu.libs.events.api.EventTarget;
+import be.nabu.libs.resources.api.Resource;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.PushbackContainer;
+import be.nabu.utils.mime.api.ContentPart;
+import be.nabu.utils.mime.api.ModifiablePart;
+import be.nabu.utils.mime.impl.MimeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HTTPMessageParserTest {
+	
+	private static final String GET = "GET /first HTTP/1.1\r\nHost: example.com\r\n\r\n";
+	private static final String GET2 = "GET /second HTTP/1.1\r\nHost: example.com\r\n\r\n";
+	private static final String POST = "POST /upload HTTP/1.1\r\nHost: example.com\r\nContent-Length: 11\r\n\r\nhello world";
+	
+	private BodyBudget original;
+	private BodyBudget budget;
+	private ByteBuffer buffer;
+	private PushbackContainer<ByteBuffer> container;
+	
+	@Before
+	public void setUp() throws Exception {
+		original = BodyBudget.getInstance();
+		budget = new BodyBudget(0, 1024, 5);
+		BodyBudget.setInstance(budget);
+		buffer = IOUtils.newByteBuffer(65536, true);
+		container = IOUtils.pushback(buffer);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		BodyBudget.setInstance(original);
+	}
+	
+	private HTTPMessageParser newParser() {
+		return new HTTPMessageParser(new MemoryMessageDataProvider(), (EventTarget) null);
+	}
+	
+	private void send(String data) throws IOException {
+		byte [] bytes = data.getBytes("ASCII");
+		assertEquals(bytes.length, buffer.write(bytes, 0, bytes.length));
+	}
+	
+	@Test
+	public void testPipelinedRequests() throws IOException, ParseException {
+		send(GET + GET2);
+		HTTPMessageParser parser = newParser();
+		parser.push(container);
+		assertTrue(parser.isDone());
+		assertEquals("/first", parser.getTarget());
+		assertNotNull(parser.getMessage());
+		
+		// the second request was pushed back and must survive the reset
+		parser.reset();
+		assertFalse(parser.isIdentified());
+		parser.push(container);
+		assertTrue(parser.isDone());
+		assertEquals("/second", parser.getTarget());
+		assertNotNull(parser.getMessage());
+	}
+	
+	@Test
+	public void testBodyFollowedByPipelinedRequest() throws IOException, ParseException {
+		send(POST + GET2);
+		HTTPMessageParser parser = newParser();
+		parser.push(container);
+		assertTrue(parser.isDone());
+		assertEquals("POST", parser.getMethod());
+		ModifiablePart part = parser.getMessage();
+		assertEquals(Long.valueOf(11), MimeUtils.getContentLength(part.getHeaders()));
+		assertEquals("hello world", new String(IOUtils.toBytes(((ContentPart) part).getReadable()), "ASCII"));
+		
+		parser.reset();
+		parser.push(container);
+		assertTrue(parser.isDone());
+		assertEquals("GET", parser.getMethod());
+		assertEquals("/second", parser.getTarget());
+	}
+	
+	@Test
+	public void testHeadSplitAcrossPackets() throws IOException, ParseException {
+		HTTPMessageParser parser = newParser();
+		// split right in the middle of the terminating CRLFCRLF
+		int split = GET.length() - 3;
+		send(GET.substring(0, split));
+		parser.push(container);
+		assertFalse(parser.isIdentified());
+		assertFalse(parser.isDone());
+		
+		send(GET.substring(split) + GET2.substring(0, 10));
+		parser.push(container);
+		assertTrue(parser.isDone());
+		assertEquals("/first", parser.getTarget());
+		
+		// the partial second request is kept for the next message
+		parser.reset();
+		parser.push(container);
+		assertFalse(parser.isIdentified());
+		send(GET2.substring(10));
+		parser.push(container);
+		assertTrue(parser.isDone());
+		assertEquals("/second", parser.getTarget());
+	}
+	
+	@Test
+	public void testEverySplit() throws IOException, ParseException {
+		for (int split = 1; split < POST.length(); split++) {
+			buffer = IOUtils.newByteBuffer(65536, true);
+			container = IOUtils.pushback(buffer);
+			HTTPMessageParser parser = newParser();
+			send(POST.substring(0, split));
+			parser.push(container);
+			send(POST.substring(split));
+			parser.push(container);
+			assertTrue("split at " + split, parser.isDone());
+			ModifiablePart part = parser.getMessage();
+			assertEquals("hello world", new String(IOUtils.toBytes(((ContentPart) part).getReadable()), "ASCII"));
+			MessageResources.finish(part);
+		}
+	}
+	
+	@Test
+	public void testBudgetReleasedWithExchange() throws IOException, ParseException {
+		send(POST);
+		HTTPMessageParser parser = newParser();
+		parser.push(container);
+		assertTrue(parser.isDone());
+		assertEquals(11, budget.getInUse());
+		ModifiablePart part = parser.getMessage();
+		
+		// the parser is reused, but the message still belongs to the exchange
+		parser.reset();
+		assertEquals(11, budget.getInUse());
+		
+		MessageResources.finish(part);
+		assertEquals(0, budget.getInUse());
+		// finishing twice has no effect
+		MessageResources.finish(part);
+		assertEquals(0, budget.getInUse());
+	}
+	
+	@Test
+	public void testBudgetReleasedForIncompleteMessage() throws IOException, ParseException {
+		send(POST.substring(0, POST.length() - 5));
+		HTTPMessageParser parser = newParser();
+		parser.push(container);
+		assertFalse(parser.isDone());
+		assertEquals(11, budget.getInUse());
+		
+		// nobody will ever see this message
+		parser.reset();
+		assertEquals(0, budget.getInUse());
+	}
+	
+	@Test
+	public void testRetainedBodySurvivesClose() throws IOException, ParseException {
+		send(POST);
+		HTTPMessageParser parser = newParser();
+		parser.push(container);
+		assertTrue(parser.isDone());
+		ModifiablePart part = parser.getMessage();
+		
+		// a handler that keeps processing the body after it responds
+		Resource resource = MessageResources.retain(part);
+		assertNotNull(resource);
+		MessageResources.finish(part);
+		parser.close();
+		assertEquals(11, budget.getInUse());
+		assertEquals("hello world", new String(IOUtils.toBytes(((ContentPart) part).getReadable()), "ASCII"));
+		
+		MessageResources.release(resource);
+		assertEquals(0, budget.getInUse());
+	}
+	
+	@Test
+	public void testBudgetReleasedOnClose() throws IOException, ParseException {
+		send(POST.substring(0, POST.length() - 5));
+		HTTPMessageParser parser = newParser();
+		parser.push(container);
+		assertEquals(11, budget.getInUse());
+		parser.close();
+		assertEquals(0, budget.getInUse());
+	}
+}
@@ -0,0 +1,125 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import be.nabu.libs.resources.api.Resource;
+import be.nabu.libs.resources.api.ResourceContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessageResourcesTest {
+	
+	private BodyBudget original;
+	private BodyBudget budget;
+	
+	@Before
+	public void setUp() {
+		original = BodyBudget.getInstance();
+		budget = new BodyBudget(100, 10, 5);
+		BodyBudget.setInstance(budget);
+	}
+	
+	@After
+	public void tearDown() {
+		BodyBudget.setInstance(original);
+	}
+	
+	private TestResource newResource(long amount) {
+		TestResource resource = new TestResource();
+		assertTrue(budget.reserve(amount));
+		budget.attach(resource, amount);
+		return resource;
+	}
+	
+	@Test
+	public void testFinishReleasesResource() {
+		Object message = new Object();
+		TestResource resource = newResource(40);
+		MessageResources.attach(message, resource);
+		assertEquals(40, budget.getInUse());
+		
+		MessageResources.finish(message);
+		assertTrue(resource.closed);
+		assertEquals(0, budget.getInUse());
+		
+		// the message is no longer tracked
+		resource.closed = false;
+		MessageResources.finish(message);
+		assertFalse(resource.closed);
+	}
+	
+	@Test
+	public void testReleaseWithoutMessage() {
+		TestResource resource = newResource(40);
+		MessageResources.release(resource);
+		assertTrue(resource.closed);
+		assertEquals(0, budget.getInUse());
+		MessageResources.release(null);
+		MessageResources.finish(null);
+	}
+	
+	@Test
+	public void testRetain() {
+		Object message = new Object();
+		TestResource resource = newResource(40);
+		MessageResources.attach(message, resource);
+		
+		// the handler takes over the body, finishing the exchange no longer touches it
+		assertSame(resource, MessageResources.retain(message));
+		MessageResources.finish(message);
+		assertFalse(resource.closed);
+		assertEquals(40, budget.getInUse());
+		assertNull(MessageResources.retain(message));
+		
+		MessageResources.release(resource);
+		assertTrue(resource.closed);
+		assertEquals(0, budget.getInUse());
+	}
+	
+	private static class TestResource implements Resource, Closeable {
+		private boolean closed;
+		
+		@Override
+		public String getContentType() {
+			return "application/octet-stream";
+		}
+		@Override
+		public String getName() {
+			return "tmp";
+		}
+		@Override
+		public ResourceContainer<?> getParent() {
+			return null;
+		}
+		@Override
+		public void close() throws IOException {
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class HostRouterTest {
+	
+	private static final String [] ROUTES = new String [] { "example\\.com", "tenant1\\.example\\.com", ".*\\.example\\.com", "[^.]+\\.example\\.com", "api-[0-9]+\\.example\\.org", ".+\\.org", "foo\\.bar\\.example\\.com" };
+	private static final String [] HOSTS = new String [] { "example.com", "tenant1.example.com", "a.b.example.com", "x.example.com", "api-12.example.org", "z.org", "foo.bar.example.com", "nothing.net", "com", "" };
+	
+	private static Map<String, String> getRoutes() {
+		Map<String, String> routes = new HashMap<String, String>();
+		for (String route : ROUTES) {
+			routes.put(route, route);
+		}
+		routes.put(null, "default");
+		return routes;
+	}
+	
+	// the semantics we have to respect: the longest regex that matches wins, otherwise the default
+	private static String getExpected(String host) {
+		String best = null;
+		for (String route : ROUTES) {
+			if (host.matches(route) && (best == null || route.length() > best.length())) {
+				best = route;
+			}
+		}
+		return best == null ? "default" : best;
+	}
+	
+	@Test
+	public void testLongestMatchWins() {
+		HostRouter<String> router = new HostRouter<String>(getRoutes(), 0);
+		for (String host : HOSTS) {
+			assertEquals(host, getExpected(host), router.route(host));
+		}
+	}
+	
+	@Test
+	public void testCachedDecisions() {
+		HostRouter<String> router = new HostRouter<String>(getRoutes(), 2);
+		for (int i = 0; i < 3; i++) {
+			for (String host : HOSTS) {
+				assertEquals(host, getExpected(host), router.route(host));
+			}
+		}
+	}
+	
+	@Test
+	public void testDefault() {
+		HostRouter<String> router = new HostRouter<String>(getRoutes(), 10);
+		assertEquals("default", router.route(null));
+		assertEquals("default", router.route("unknown.net"));
+		Map<String, String> routes = new HashMap<String, String>();
+		routes.put("example\\.com", "example");
+		router = new HostRouter<String>(routes, 10);
+		assertNull(router.route("unknown.net"));
+	}
+	
+	@Test
+	public void testLiteralOverriddenByLongerRegex() {
+		Map<String, String> routes = new HashMap<String, String>();
+		routes.put("a.example.com", "literal");
+		routes.put("[a-z]+\\.example\\.com", "regex");
+		HostRouter<String> router = new HostRouter<String>(routes, 10);
+		assertEquals("regex", router.route("a.example.com"));
+		assertEquals("regex", router.route("b.example.com"));
+	}
+	
+	@Test
+	public void testUnescapedDotIsRegex() {
+		Map<String, String> routes = new HashMap<String, String>();
+		routes.put("a.b.com", "dotted");
+		HostRouter<String> router = new HostRouter<String>(routes, 10);
+		assertEquals("dotted", router.route("a.b.com"));
+		assertEquals("dotted", router.route("axb.com"));
+	}
+	
+	@Test
+	public void testLiteral() {
+		assertEquals("example.com", HostRouter.getLiteral("example\\.com"));
+		assertEquals("my-host.com", HostRouter.getLiteral("my\\-host\\.com"));
+		// an unescaped dot matches any character
+		assertNull(HostRouter.getLiteral("example.com"));
+		assertNull(HostRouter.getLiteral(".*\\.example\\.com"));
+		assertNull(HostRouter.getLiteral("api-[0-9]+\\.example\\.org"));
+	}
+}
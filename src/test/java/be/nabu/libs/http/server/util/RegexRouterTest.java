@@ -0,0 +1,100 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RegexRouterTest {
+	
+	private static final String [] ROUTES = new String [] { "/upload/.*", "/upload/big/.*", "/exact", "/exac.*", "/short", "/a+b", "(?i)/CASE.*", "/x|/y", ".*\\.bin", "/api/v1/files/[0-9]+" };
+	private static final String [] INPUTS = new String [] { "/upload/x", "/upload/big/y", "/exact", "/exactx", "/short", "/aab", "/b", "/case/1", "/y", "/foo.bin", "/upload/a.bin", "/api/v1/files/12", "/api/v1/files/x", "" };
+	
+	private static Map<String, String> getRoutes() {
+		Map<String, String> routes = new HashMap<String, String>();
+		for (String route : ROUTES) {
+			routes.put(route, route);
+		}
+		return routes;
+	}
+	
+	// the semantics we have to respect: the longest regex that matches wins
+	private static String getExpected(String input) {
+		String best = null;
+		for (String route : ROUTES) {
+			if (input.matches(route) && (best == null || route.length() > best.length())) {
+				best = route;
+			}
+		}
+		return best;
+	}
+	
+	@Test
+	public void testLongestMatchWins() {
+		RegexRouter<String> router = new RegexRouter<String>(getRoutes(), 0);
+		for (String input : INPUTS) {
+			assertEquals(input, getExpected(input), router.route(input));
+		}
+	}
+	
+	@Test
+	public void testCachedDecisions() {
+		// a tiny cache so it is cleared while we go
+		RegexRouter<String> router = new RegexRouter<String>(getRoutes(), 2);
+		for (int i = 0; i < 3; i++) {
+			for (String input : INPUTS) {
+				assertEquals(input, getExpected(input), router.route(input));
+			}
+		}
+	}
+	
+	@Test
+	public void testLiteralOverriddenByLongerRegex() {
+		Map<String, String> routes = new HashMap<String, String>();
+		routes.put("/exact", "literal");
+		routes.put("/exac.*", "regex");
+		RegexRouter<String> router = new RegexRouter<String>(routes, 0);
+		assertEquals("regex", router.route("/exact"));
+		routes.put("/exact/longer", "longer");
+		router = new RegexRouter<String>(routes, 0);
+		assertEquals("longer", router.route("/exact/longer"));
+	}
+	
+	@Test
+	public void testNoRoutes() {
+		RegexRouter<String> router = new RegexRouter<String>(new HashMap<String, String>(), 10);
+		assertNull(router.route("/anything"));
+		assertNull(router.route(null));
+		assertEquals(0, router.size());
+	}
+	
+	@Test
+	public void testLiteralPrefix() {
+		assertEquals("/upload/", RegexRouter.getLiteralPrefix("/upload/.*"));
+		assertEquals("/exact", RegexRouter.getLiteralPrefix("/exact"));
+		// the b is subject to the quantifier
+		assertEquals("/a", RegexRouter.getLiteralPrefix("/ab*"));
+		assertEquals("", RegexRouter.getLiteralPrefix("/x|/y"));
+		assertEquals("", RegexRouter.getLiteralPrefix(".*\\.bin"));
+	}
+}